@@ -23,11 +23,13 @@ import org.apache.lucene.search.CollectionStatistics;
 import org.apache.lucene.search.Explanation;
 import org.apache.lucene.search.TermStatistics;
 import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.util.ArrayUtil;
 import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.SmallFloat;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 
@@ -226,33 +228,74 @@ public class BM25LSimilarity extends Similarity {
         return Explanation.match(idf, "idf(), sum of:", details);
     }
 
+    /**
+     * The idf of {@link #idfExplain}, the sum of the idfs for a phrase, without building the explanation
+     */
+    float idfValue(CollectionStatistics collectionStats, TermStatistics... termStats) {
+        final long docCount = collectionStats.docCount() == -1 ? collectionStats.maxDoc() : collectionStats.docCount();
+        if (termStats.length == 1) {
+            return idf(termStats[0].docFreq(), docCount);
+        }
+        float idf = 0.0f;
+        for (final TermStatistics stat : termStats) {
+            idf += idf(stat.docFreq(), docCount);
+        }
+        return idf;
+    }
+
+    /**
+     * Norm cache of the last avgdl a weight was computed for
+     */
+    private volatile NormCache lastNormCache;
+
+    private static class NormCache {
+        private final float avgdl;
+        private final float[] values;
+
+        NormCache(float avgdl, float[] values) {
+            this.avgdl = avgdl;
+            this.values = values;
+        }
+    }
+
     @Override
     public final SimWeight computeWeight(CollectionStatistics collectionStats, TermStatistics... termStats) {
-        Explanation idf = termStats.length == 1 ? idfExplain(collectionStats, termStats[0]) : idfExplain(collectionStats, termStats);
+        float idf = idfValue(collectionStats, termStats);
 
         float avgdl = avgFieldLength(collectionStats);
 
-        // compute freq-independent part of bm25 equation across all norm values
-        float cache[] = new float[256];
-        for (int i = 0; i < cache.length; i++) {
-            //cache[i] = k1 * ((1 - b) + b * decodeNormValue((byte) i) / avgdl);
-            //cache becomes cachePrime
-            cache[i] = ((1 - b) + b * decodeNormValue((byte) i) / avgdl);
+        // compute freq-independent part of bm25 equation across all norm values;
+        // it only depends on avgdl, so all terms of a reader share one cache
+        NormCache normCache = lastNormCache;
+        if (normCache == null || normCache.avgdl != avgdl) {
+            float cache[] = new float[256];
+            for (int i = 0; i < cache.length; i++) {
+                cache[i] = ((1 - b) + b * decodeNormValue((byte) i) / avgdl);
+            }
+            normCache = new NormCache(avgdl, cache);
+            lastNormCache = normCache;
         }
-        return new BM25Stats(collectionStats.field(), idf, avgdl, cache);
+        return new BM25Stats(collectionStats.field(), idf, avgdl, normCache.values, collectionStats, termStats);
     }
 
     @Override
     public final SimScorer simScorer(SimWeight stats, LeafReaderContext context) throws IOException {
+        long start = Metrics.start();
         BM25Stats bm25stats = (BM25Stats) stats;
-        return new BM25DocScorer(bm25stats, context.reader().getNormValues(bm25stats.field));
+        BM25DocScorer scorer = new BM25DocScorer(bm25stats, context.reader().getNormValues(bm25stats.field));
+        Metrics.record("query.simScorer", start);
+        return scorer;
     }
 
-    private class BM25DocScorer extends SimScorer {
+    private class BM25DocScorer extends SimScorer implements BulkSimScorer {
         private final BM25Stats stats;
         private final float weightValue; // boost * idf * (k1 + 1)
         private final NumericDocValues norms;
         private final float[] cache;
+        /**
+         * norms of the current block, see {@link #score(int[], float[], float[], int)}
+         */
+        private float[] blockNorms = new float[0];
 
         BM25DocScorer(BM25Stats stats, NumericDocValues norms) throws IOException {
             this.stats = stats;
@@ -275,6 +318,25 @@ public class BM25LSimilarity extends Similarity {
                 return 0.0f;
         }
 
+        @Override
+        public void score(int[] docs, float[] freqs, float[] out, int n) {
+            if (blockNorms.length < n) {
+                blockNorms = new float[ArrayUtil.oversize(n, Float.BYTES)];
+            }
+            final float[] blockNorms = this.blockNorms;
+            if (norms == null) {
+                Arrays.fill(blockNorms, 0, n, k1);
+            } else {
+                for (int i = 0; i < n; i++) {
+                    blockNorms[i] = cache[(byte) norms.get(docs[i]) & 0xFF];
+                }
+            }
+            for (int i = 0; i < n; i++) {
+                float freqPrime = freqs[i] / blockNorms[i];
+                out[i] = freqPrime > 0 ? (weightValue * freqPrime + delta) / (k1 + (freqPrime + delta)) : 0.0f;
+            }
+        }
+
         @Override
         public Explanation explain(int doc, Explanation freq) {
             return explainScore(doc, freq, stats, norms);
@@ -298,7 +360,10 @@ public class BM25LSimilarity extends Similarity {
         /**
          * BM25's idf
          */
-        private final Explanation idf;
+        private final float idf;
+        /** statistics the idf explanation is built from, only when a score is explained */
+        private final CollectionStatistics collectionStats;
+        private final TermStatistics[] termStats;
         /**
          * The average document length.
          */
@@ -320,8 +385,11 @@ public class BM25LSimilarity extends Similarity {
          */
         private final float cache[];
 
-        BM25Stats(String field, Explanation idf, float avgdl, float cache[]) {
+        BM25Stats(String field, float idf, float avgdl, float cache[],
+                CollectionStatistics collectionStats, TermStatistics[] termStats) {
             this.field = field;
+            this.collectionStats = collectionStats;
+            this.termStats = termStats;
             this.idf = idf;
             this.avgdl = avgdl;
             this.cache = cache;
@@ -338,7 +406,7 @@ public class BM25LSimilarity extends Similarity {
         public void normalize(float queryNorm, float boost) {
             // we don't normalize with queryNorm at all, we just capture the top-level boost
             this.boost = boost;
-            this.weight = idf.getValue() * boost;
+            this.weight = idf * boost;
         }
     }
 
@@ -367,11 +435,12 @@ public class BM25LSimilarity extends Similarity {
         List<Explanation> subs = new ArrayList<>();
         if (boostExpl.getValue() != 1.0f)
             subs.add(boostExpl);
-        subs.add(stats.idf);
+        subs.add(stats.termStats.length == 1 ? idfExplain(stats.collectionStats, stats.termStats[0])
+                : idfExplain(stats.collectionStats, stats.termStats));
         Explanation tfNormExpl = explainTFNorm(doc, freq, stats, norms);
         subs.add(tfNormExpl);
         return Explanation.match(
-                boostExpl.getValue() * stats.idf.getValue() * tfNormExpl.getValue(),
+                boostExpl.getValue() * stats.idf * tfNormExpl.getValue(),
                 "score(doc=" + doc + ",freq=" + freq + "), product of:", subs);
     }
 
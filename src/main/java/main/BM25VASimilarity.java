@@ -23,11 +23,23 @@ import org.apache.lucene.search.TermStatistics;
 import org.apache.lucene.search.similarities.Similarity;
 import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.LuceneTestCase;
+import org.apache.lucene.util.RamUsageEstimator;
 import org.apache.lucene.util.SmallFloat;
+import org.apache.lucene.util.packed.PackedInts;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
@@ -228,96 +240,493 @@ public class BM25VASimilarity extends Similarity {
         return Explanation.match(idf, "idf(), sum of:", details);
     }
 
+    /**
+     * The idf of {@link #idfExplain}, the sum of the idfs for a phrase, without building the explanation
+     */
+    float idfValue(CollectionStatistics collectionStats, TermStatistics... termStats) {
+        final long docCount = collectionStats.docCount() == -1 ? collectionStats.maxDoc() : collectionStats.docCount();
+        if (termStats.length == 1) {
+            return idf(termStats[0].docFreq(), docCount);
+        }
+        float idf = 0.0f;
+        for (final TermStatistics stat : termStats) {
+            idf += idf(stat.docFreq(), docCount);
+        }
+        return idf;
+    }
+
+    /**
+     * Decoded document lengths for all norm values, shared by the weights of all terms
+     */
+    private volatile float[] lengthCache;
+
     @Override
     public final SimWeight computeWeight(CollectionStatistics collectionStats, TermStatistics... termStats) {
-        Explanation idf = termStats.length == 1 ? idfExplain(collectionStats, termStats[0]) : idfExplain(collectionStats, termStats);
+        float idf = idfValue(collectionStats, termStats);
 
         float avgdl = avgFieldLength(collectionStats);
 
-        // compute freq-independent part of bm25 equation across all norm values
-        float cache[] = new float[256];
-        for (int i = 0; i < cache.length; i++) {
-            //cache[i] = k1 * ((1 - b) + b * decodeNormValue((byte) i) / avgdl);
-            //cache becomes cachePrime = B
-            //cache[i] = ((1 - b) + b * decodeNormValue((byte) i) / avgdl);
-            // B_VA
-            //cache[i] = (1/(mavgtf * mavgtf) * decodeNormValue((byte) i) / Td) +
-            //        ((1 - 1/mavgtf)*decodeNormValue((byte) i) / avgdl);
-
-
-            //Cache should now only contain the length of doc d.
-            cache[i] = decodeNormValue((byte) i);
+        // the cache only contains the length of doc d, which is the same for all terms:
+        // B_VA itself is computed per segment, see VAStats
+        float cache[] = lengthCache;
+        if (cache == null) {
+            cache = new float[256];
+            for (int i = 0; i < cache.length; i++) {
+                cache[i] = decodeNormValue((byte) i);
+            }
+            lengthCache = cache;
         }
-        return new BM25Stats(collectionStats.field(), idf, avgdl, cache);
+        float mavgtf = collectionStats instanceof GlobalCollectionStatistics
+                ? ((GlobalCollectionStatistics) collectionStats).mavgtf : Float.NaN;
+        return new BM25Stats(collectionStats.field(), idf, avgdl, mavgtf, cache, collectionStats, termStats);
     }
 
     @Override
     public final SimScorer simScorer(SimWeight stats, LeafReaderContext context) throws IOException {
+        long start = Metrics.start();
         BM25Stats bm25stats = (BM25Stats) stats;
-        LeafReader reader = context.reader();
-        //int docCount = reader.getDocCount(bm25stats.field);
+        VAStats vaStats = segmentStats(context.reader(), bm25stats.field);
+        float mavgtf = Float.isNaN(bm25stats.mavgtf) ? vaStats.mavgtf : bm25stats.mavgtf;
+        BM25DocScorer scorer = new BM25DocScorer(bm25stats, bva(vaStats, context.reader(), bm25stats.field, bm25stats.avgdl, mavgtf));
+        Metrics.record("query.simScorer", start);
+        return scorer;
+    }
+
+    /**
+     * Collection statistics that also carry the mean average term frequency of the whole
+     * collection, which the weight then scores with instead of the per-segment one, so that
+     * shards of a collection score like the unsplit collection. The value travels with each
+     * weight, so searches with different statistics can share the similarity.
+     */
+    public static class GlobalCollectionStatistics extends CollectionStatistics {
+        private final float mavgtf;
+
+        /**
+         * @param mavgtf the collection-wide value, NaN to use the per-segment values
+         */
+        public GlobalCollectionStatistics(String field, long maxDoc, long docCount, long sumTotalTermFreq,
+                                          long sumDocFreq, float mavgtf) {
+            super(field, maxDoc, docCount, sumTotalTermFreq, sumDocFreq);
+            this.mavgtf = mavgtf;
+        }
+    }
+
+    /**
+     * Heap budget of the B_VA columns of all segments in bytes, 0 for unbounded float columns
+     */
+    private volatile long memoryBudget;
+    private volatile boolean quantize;
+    private volatile Path spillDir;
+    private final AtomicLong heapBytes = new AtomicLong();
+    private final AtomicLong diskBytes = new AtomicLong();
+    /**
+     * heap of the per-document lengths of all segments, reported but not part of the budget
+     */
+    private final AtomicLong lengthBytes = new AtomicLong();
+    /**
+     * where replaced columns end up once no scorer reaches them
+     */
+    private final ReferenceQueue<BVAColumn> unreachableColumns = new ReferenceQueue<>();
+
+    /**
+     * Bounds the heap used by BM25VA, for machines with small heaps: of the per-document lengths
+     * only the unique term counts are kept, bit-packed, as the lengths themselves are decoded
+     * from the norms again when B_VA is rebuilt; heap columns are stored as floats or
+     * quantized to 16 bits, and a column that would exceed the budget is memory-mapped from a
+     * file in spillDir instead. Applies to the segments whose statistics are computed afterwards.
+     *
+     * @param bytes    budget of the heap columns of all segments, 0 to keep floats and lengths without a bound
+     * @param quantize stores heap columns with 16 bits per document
+     * @param spillDir directory for the columns over the budget
+     */
+    public void setMemoryBudget(long bytes, boolean quantize, Path spillDir) {
+        this.memoryBudget = bytes;
+        this.quantize = quantize;
+        this.spillDir = spillDir;
+    }
 
-        //BVA calculated for each document
-        float[] BVA = new float[reader.maxDoc()];
+    /**
+     * Returns the sum of the average term frequencies (Ld / Td) of all documents of a segment,
+     * which together with maxDoc lets callers aggregate mavgtf over several segments or shards.
+     */
+    public double averageTermFrequencySum(LeafReader reader, String field) throws IOException {
+        return segmentStats(reader, field).sumOfAverageTermFrequencies;
+    }
+
+    /**
+     * Computes the BM25VA statistics of a segment ahead of the first query, e.g. for
+     * segments produced by a merge. Does nothing if they are already cached.
+     */
+    public void warmSegment(LeafReader reader, String field) throws IOException {
+        segmentStats(reader, field);
+    }
+
+    /**
+     * BM25VA statistics per segment and field. Computing them reads one term vector per
+     * document, so they are cached on the segment core and dropped when the core is closed.
+     */
+    private final Map<SegmentKey, VAStats> segmentStats = new ConcurrentHashMap<>();
+
+    private VAStats segmentStats(LeafReader reader, String field) throws IOException {
+        final SegmentKey key = new SegmentKey(reader.getCoreCacheKey(), field);
+        VAStats vaStats = segmentStats.get(key);
+        if (vaStats == null) {
+            long start = Metrics.start();
+            vaStats = computeSegmentStats(reader, field);
+            Metrics.record("va.segmentStats", start);
+            if (segmentStats.putIfAbsent(key, vaStats) == null) {
+                lengthBytes.addAndGet(vaStats.lengthBytes());
+                final VAStats closed = vaStats;
+                reader.addCoreClosedListener(ownerCoreCacheKey -> {
+                    segmentStats.remove(key);
+                    release(closed);
+                });
+            } else {
+                vaStats = segmentStats.get(key);
+            }
+        }
+        return vaStats;
+    }
+
+    private VAStats computeSegmentStats(LeafReader reader, String field) throws IOException {
+        //int docCount = reader.getDocCount(bm25stats.field);
         float sumOfAverageTermFrequencies = 0.0f;
 
         //length of each doc
         float[] Ld = new float[reader.maxDoc()];
         //the number of unique terms in the doc.
         float[] Td = new float[reader.maxDoc()];
+        computeLengths(reader, field, Ld, Td);
 
-        NumericDocValues norms = reader.getNormValues(bm25stats.field);
-
-//        int nulldocs = 0;
+        // summed serially in doc order, so mavgtf and with it every score does not depend on the number of threads
         for (int i = 0; i < reader.maxDoc(); i++){
-            Terms terms = reader.getTermVector(i, bm25stats.field);
-            //norm should be the decoded length of doc d, Ld.
-            float norm = norms == null ? k1 : bm25stats.cache[(byte) norms.get(i) & 0xFF];
-            Ld[i] = norm;
-            //using terms.size() returns Td, the number of unique terms in the doc.
-            Td[i] = terms.size();
-//            if (terms == null) {
-//                nulldocs++;
-//                continue;
-//            }
-
             float averageTermFrequency = Ld[i]/Td[i];
             sumOfAverageTermFrequencies += averageTermFrequency;
         }
         //calculate mean average term frequency of all documents
         float mavgtf = sumOfAverageTermFrequencies/reader.maxDoc();
 
-        //calculate B_VA for each document
-        for (int i = 0; i < reader.maxDoc(); i++){
-            BVA[i] = 1/(mavgtf*mavgtf)*Ld[i]/Td[i]+(1 - 1/mavgtf)*Ld[i]/bm25stats.avgdl;
+        if (memoryBudget <= 0) {
+            return new VAStats(Ld, Td, null, sumOfAverageTermFrequencies, mavgtf);
+        }
+        // Ld is decoded from the norms again when needed, Td is an integer and packs into few bits
+        int maxTd = 0;
+        for (float td : Td) {
+            maxTd = Math.max(maxTd, (int) td);
         }
+        PackedInts.Mutable uniqueTerms = PackedInts.getMutable(Td.length, PackedInts.bitsRequired(maxTd), PackedInts.COMPACT);
+        for (int i = 0; i < Td.length; i++) {
+            uniqueTerms.set(i, (long) Td[i]);
+        }
+        return new VAStats(null, null, uniqueTerms, sumOfAverageTermFrequencies, mavgtf);
+    }
 
-//        System.out.println("Null docs: "+nulldocs);
-//        System.out.println("Max docs: "+reader.maxDoc());
-//        System.out.println("Doc count: "+reader.getDocCount(bm25stats.field));
-//        System.out.println("max docs minus null docs: "+(reader.maxDoc() - nulldocs));
+    private void computeLengths(LeafReader reader, String field, float[] Ld, float[] Td) throws IOException {
+        // reading the term vectors dominates, so it is split into fork-join tasks over doc ranges
+        try {
+            ForkJoinPool.commonPool().invoke(new SegmentStatsTask(reader, field, Ld, Td, 0, reader.maxDoc()));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
 
-        return new BM25DocScorer(bm25stats, BVA);
+    /**
+     * B_VA for each document of a segment; avgdl and mavgtf are fixed for a reader, so this is
+     * rarely recomputed. A replaced column may still be read by scorers created before, so it
+     * is retired rather than closed, see {@link RetiredColumn}.
+     */
+    private BVAColumn bva(VAStats stats, LeafReader reader, String field, float avgdl, float mavgtf) throws IOException {
+        BVA cached = stats.lastBVA;
+        if (cached != null && cached.avgdl == avgdl && cached.mavgtf == mavgtf) {
+            return cached.column;
+        }
+        reclaimColumns();
+        synchronized (stats) {
+            cached = stats.lastBVA;
+            if (cached != null && cached.avgdl == avgdl && cached.mavgtf == mavgtf) {
+                return cached.column;
+            }
+            float[] values = new float[reader.maxDoc()];
+            if (stats.Ld != null) {
+                float[] Ld = stats.Ld;
+                float[] Td = stats.Td;
+                for (int i = 0; i < values.length; i++){
+                    values[i] = 1/(mavgtf*mavgtf)*Ld[i]/Td[i]+(1 - 1/mavgtf)*Ld[i]/avgdl;
+                }
+            } else {
+                // same arithmetic as above, with Ld decoded from the norms like SegmentStatsTask does
+                NumericDocValues norms = reader.getNormValues(field);
+                for (int i = 0; i < values.length; i++){
+                    float Ld = norms == null ? k1 : decodeNormValue((byte) norms.get(i));
+                    float Td = stats.uniqueTerms.get(i);
+                    values[i] = 1/(mavgtf*mavgtf)*Ld/Td+(1 - 1/mavgtf)*Ld/avgdl;
+                }
+            }
+            BVAColumn column;
+            if (memoryBudget <= 0) {
+                column = new BVAColumn.FloatColumn(values);
+                heapBytes.addAndGet(column.ramBytesUsed());
+            } else {
+                column = boundedColumn(values);
+            }
+            diskBytes.addAndGet(column.diskBytesUsed());
+            if (cached != null) {
+                stats.retired.add(new RetiredColumn(cached.column, unreachableColumns, stats));
+            }
+            stats.lastBVA = new BVA(avgdl, mavgtf, column);
+            reportFootprint(stats, reader, column);
+            return column;
+        }
+    }
+
+    /**
+     * A heap column if it fits into what is left of the budget, a column on disk otherwise
+     */
+    private BVAColumn boundedColumn(float[] values) throws IOException {
+        long bytes = (long) values.length * (quantize ? Short.BYTES : Float.BYTES);
+        if (heapBytes.addAndGet(bytes) <= memoryBudget) {
+            BVAColumn column = quantize ? new BVAColumn.QuantizedColumn(values) : new BVAColumn.FloatColumn(values);
+            heapBytes.addAndGet(column.ramBytesUsed() - bytes);
+            return column;
+        }
+        heapBytes.addAndGet(-bytes);
+        return new BVAColumn.DiskColumn(values, spillDir);
     }
 
-    private class BM25DocScorer extends SimScorer {
+    private void reportFootprint(VAStats stats, LeafReader reader, BVAColumn column) {
+        long lengths = stats.lengthBytes();
+        Metrics.gauge("va.heapBytes", heapBytes.get());
+        Metrics.gauge("va.lengthBytes", lengthBytes.get());
+        Metrics.gauge("va.diskBytes", diskBytes.get());
+        if (Main.debugOutput) {
+            System.err.printf("BM25VA %s: B_VA %s, %d KB heap (%d KB lengths), %d KB disk%n", reader,
+                    column.storage(), (column.ramBytesUsed() + lengths) / 1024, lengths / 1024, column.diskBytesUsed() / 1024);
+        }
+    }
+
+    /**
+     * Returns the columns of a segment whose core was closed to the budget and deletes their
+     * files; no scorer reads them any more once the core is closed
+     */
+    private void release(VAStats stats) throws IOException {
+        synchronized (stats) {
+            lengthBytes.addAndGet(-stats.lengthBytes());
+            if (stats.lastBVA != null) {
+                BVAColumn column = stats.lastBVA.column;
+                heapBytes.addAndGet(-column.ramBytesUsed());
+                diskBytes.addAndGet(-column.diskBytesUsed());
+                column.close();
+                stats.lastBVA = null;
+            }
+            for (RetiredColumn retired : stats.retired) {
+                retired.free();
+            }
+            stats.retired.clear();
+        }
+        Metrics.gauge("va.heapBytes", heapBytes.get());
+        Metrics.gauge("va.lengthBytes", lengthBytes.get());
+        Metrics.gauge("va.diskBytes", diskBytes.get());
+    }
+
+    /**
+     * Frees the retired columns no scorer can reach any more
+     */
+    private void reclaimColumns() throws IOException {
+        RetiredColumn retired;
+        while ((retired = (RetiredColumn) unreachableColumns.poll()) != null) {
+            synchronized (retired.stats) {
+                // a column of a closed segment was freed by release already
+                if (retired.stats.retired.remove(retired)) {
+                    retired.free();
+                }
+            }
+        }
+    }
+
+    /**
+     * A column replaced by one for another avgdl or mavgtf. Scorers created before the swap may
+     * still read it and a SimScorer is never closed, so its heap bytes stay accounted and its file
+     * stays open until the garbage collector finds the column unreachable, or its segment closes.
+     */
+    private final class RetiredColumn extends PhantomReference<BVAColumn> {
+        private final VAStats stats;
+        private final long ramBytes;
+        private final long diskBytesUsed;
+        private final Closeable file;
+
+        RetiredColumn(BVAColumn column, ReferenceQueue<BVAColumn> queue, VAStats stats) {
+            super(column, queue);
+            this.stats = stats;
+            this.ramBytes = column.ramBytesUsed();
+            this.diskBytesUsed = column.diskBytesUsed();
+            this.file = column.file();
+        }
+
+        void free() throws IOException {
+            heapBytes.addAndGet(-ramBytes);
+            diskBytes.addAndGet(-diskBytesUsed);
+            if (file != null) {
+                file.close();
+            }
+        }
+    }
+
+    /**
+     * Fills Ld and Td for a range of documents, splitting ranges larger than {@link #MIN_DOCS} in two.
+     */
+    private class SegmentStatsTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private static final int MIN_DOCS = 4096;
+        private final LeafReader reader;
+        private final String field;
+        private final float[] Ld;
+        private final float[] Td;
+        private final int from;
+        private final int to;
+
+        SegmentStatsTask(LeafReader reader, String field, float[] Ld, float[] Td, int from, int to) {
+            this.reader = reader;
+            this.field = field;
+            this.Ld = Ld;
+            this.Td = Td;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > MIN_DOCS) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new SegmentStatsTask(reader, field, Ld, Td, from, mid),
+                        new SegmentStatsTask(reader, field, Ld, Td, mid, to));
+                return;
+            }
+            try {
+                // norms and term vectors readers are per thread, so each task gets its own
+                NumericDocValues norms = reader.getNormValues(field);
+                for (int i = from; i < to; i++) {
+                    Terms terms = reader.getTermVector(i, field);
+                    //norm should be the decoded length of doc d, Ld.
+                    Ld[i] = norms == null ? k1 : decodeNormValue((byte) norms.get(i));
+                    //using terms.size() returns Td, the number of unique terms in the doc.
+                    Td[i] = terms.size();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Cache key of {@link #segmentStats}: the segment core and the field.
+     */
+    private static final class SegmentKey {
+        private final Object coreCacheKey;
+        private final String field;
+
+        SegmentKey(Object coreCacheKey, String field) {
+            this.coreCacheKey = coreCacheKey;
+            this.field = field;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof SegmentKey)) {
+                return false;
+            }
+            SegmentKey that = (SegmentKey) other;
+            return coreCacheKey == that.coreCacheKey && field.equals(that.field);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(coreCacheKey) + field.hashCode();
+        }
+    }
+
+    /**
+     * Document lengths, unique term counts and mean average term frequency of one segment.
+     */
+    private static class VAStats {
+        /** null with a memory budget, then only uniqueTerms is kept */
+        private final float[] Ld;
+        private final float[] Td;
+        /** Td bit-packed, null without a memory budget */
+        private final PackedInts.Reader uniqueTerms;
+        private final float sumOfAverageTermFrequencies;
+        private final float mavgtf;
+        /**
+         * B_VA of the last avgdl and mavgtf it was requested for
+         */
+        private volatile BVA lastBVA;
+        /**
+         * replaced columns that scorers may still read, freed with the segment at the latest
+         */
+        private final List<RetiredColumn> retired = new ArrayList<>();
+
+        VAStats(float[] Ld, float[] Td, PackedInts.Reader uniqueTerms, float sumOfAverageTermFrequencies, float mavgtf) {
+            this.Ld = Ld;
+            this.Td = Td;
+            this.uniqueTerms = uniqueTerms;
+            this.sumOfAverageTermFrequencies = sumOfAverageTermFrequencies;
+            this.mavgtf = mavgtf;
+        }
+
+        long lengthBytes() {
+            return Ld != null ? RamUsageEstimator.sizeOf(Ld) + RamUsageEstimator.sizeOf(Td) : uniqueTerms.ramBytesUsed();
+        }
+    }
+
+    private static class BVA {
+        private final float avgdl;
+        private final float mavgtf;
+        private final BVAColumn column;
+
+        BVA(float avgdl, float mavgtf, BVAColumn column) {
+            this.avgdl = avgdl;
+            this.mavgtf = mavgtf;
+            this.column = column;
+        }
+    }
+
+    private class BM25DocScorer extends SimScorer implements BulkSimScorer {
         private final BM25Stats stats;
         private final float weightValue; // boost * idf * (k1 + 1)
+        private final BVAColumn column;
+        /** the column as a plain array, null if it is quantized or on disk */
         private final float[] BVA;
         private final float[] cache;
 
-        BM25DocScorer(BM25Stats stats, float[] BVA) throws IOException {
+        BM25DocScorer(BM25Stats stats, BVAColumn column) throws IOException {
             this.stats = stats;
             this.weightValue = stats.weight * (k1 + 1);
             this.cache = stats.cache;
-            this.BVA = BVA;
+            this.column = column;
+            this.BVA = column.array();
         }
 
         @Override
         public float score(int doc, float freq) {
             // if there are no norms, we act as if b=0
             //float norm = norms == null ? k1 : cache[(byte) norms.get(doc) & 0xFF];
-            return weightValue * freq / (freq + k1 * BVA[doc]);
+            return weightValue * freq / (freq + k1 * (BVA != null ? BVA[doc] : column.get(doc)));
+        }
+
+        @Override
+        public void score(int[] docs, float[] freqs, float[] out, int n) {
+            // B_VA replaces the norms, so a column on the heap needs no separate lookup pass
+            final float[] BVA = this.BVA;
+            if (BVA == null) {
+                for (int i = 0; i < n; i++) {
+                    final float freq = freqs[i];
+                    out[i] = weightValue * freq / (freq + k1 * column.get(docs[i]));
+                }
+                return;
+            }
+            for (int i = 0; i < n; i++) {
+                final float freq = freqs[i];
+                out[i] = weightValue * freq / (freq + k1 * BVA[docs[i]]);
+            }
         }
 
         @Override
@@ -343,11 +752,18 @@ public class BM25VASimilarity extends Similarity {
         /**
          * BM25's idf
          */
-        private final Explanation idf;
+        private final float idf;
+        /** statistics the idf explanation is built from, only when a score is explained */
+        private final CollectionStatistics collectionStats;
+        private final TermStatistics[] termStats;
         /**
          * The average document length.
          */
         private final float avgdl;
+        /**
+         * mean average term frequency of the whole collection, NaN to use the one of each segment
+         */
+        private final float mavgtf;
         /**
          * query boost
          */
@@ -365,10 +781,14 @@ public class BM25VASimilarity extends Similarity {
          */
         private final float cache[];
 
-        BM25Stats(String field, Explanation idf, float avgdl, float cache[]) {
+        BM25Stats(String field, float idf, float avgdl, float mavgtf, float cache[],
+                CollectionStatistics collectionStats, TermStatistics[] termStats) {
             this.field = field;
+            this.collectionStats = collectionStats;
+            this.termStats = termStats;
             this.idf = idf;
             this.avgdl = avgdl;
+            this.mavgtf = mavgtf;
             this.cache = cache;
             normalize(1f, 1f);
         }
@@ -383,7 +803,7 @@ public class BM25VASimilarity extends Similarity {
         public void normalize(float queryNorm, float boost) {
             // we don't normalize with queryNorm at all, we just capture the top-level boost
             this.boost = boost;
-            this.weight = idf.getValue() * boost;
+            this.weight = idf * boost;
         }
     }
 
@@ -412,11 +832,12 @@ public class BM25VASimilarity extends Similarity {
         List<Explanation> subs = new ArrayList<>();
         if (boostExpl.getValue() != 1.0f)
             subs.add(boostExpl);
-        subs.add(stats.idf);
+        subs.add(stats.termStats.length == 1 ? idfExplain(stats.collectionStats, stats.termStats[0])
+                : idfExplain(stats.collectionStats, stats.termStats));
         Explanation tfNormExpl = explainTFNorm(doc, freq, stats, norms);
         subs.add(tfNormExpl);
         return Explanation.match(
-                boostExpl.getValue() * stats.idf.getValue() * tfNormExpl.getValue(),
+                boostExpl.getValue() * stats.idf * tfNormExpl.getValue(),
                 "score(doc=" + doc + ",freq=" + freq + "), product of:", subs);
     }
 
@@ -0,0 +1,216 @@
+package main;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.RandomAccessInput;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.RamUsageEstimator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The B_VA value of every document of a segment, as used by {@link BM25VASimilarity}:
+ * a float array, 16-bit values quantized linearly between the smallest and the largest
+ * value, or floats in a memory-mapped file outside of the heap.
+ */
+abstract class BVAColumn implements Accountable, Closeable {
+    private static final AtomicLong FILE_COUNTER = new AtomicLong();
+
+    /**
+     * @param doc the document id within the segment
+     * @return its B_VA
+     */
+    abstract float get(int doc);
+
+    /**
+     * @return the values as a plain array if they are stored as one, null otherwise
+     */
+    float[] array() {
+        return null;
+    }
+
+    /**
+     * @return the size of the column file, 0 for columns on the heap
+     */
+    long diskBytesUsed() {
+        return 0;
+    }
+
+    /**
+     * @return how the column is stored
+     */
+    abstract String storage();
+
+    /**
+     * @return the file behind a column on disk, null for columns on the heap; closing it deletes
+     * the file, so it must not be closed while the column is still read
+     */
+    Closeable file() {
+        return null;
+    }
+
+    /**
+     * Releases the file of a column on disk
+     */
+    @Override
+    public void close() throws IOException {
+        Closeable file = file();
+        if (file != null) {
+            file.close();
+        }
+    }
+
+    /**
+     * Floats on the heap.
+     */
+    static final class FloatColumn extends BVAColumn {
+        private final float[] values;
+
+        FloatColumn(float[] values) {
+            this.values = values;
+        }
+
+        @Override
+        float get(int doc) {
+            return values[doc];
+        }
+
+        @Override
+        float[] array() {
+            return values;
+        }
+
+        @Override
+        public long ramBytesUsed() {
+            return RamUsageEstimator.sizeOf(values);
+        }
+
+        @Override
+        String storage() {
+            return "float";
+        }
+    }
+
+    /**
+     * 16-bit values on the heap, min + q * step; the error is at most half a step.
+     */
+    static final class QuantizedColumn extends BVAColumn {
+        private final short[] quantized;
+        private final float min;
+        private final float step;
+
+        QuantizedColumn(float[] values) {
+            float min = Float.POSITIVE_INFINITY, max = Float.NEGATIVE_INFINITY;
+            for (float value : values) {
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            this.min = values.length == 0 ? 0 : min;
+            this.step = values.length == 0 || max == min ? 0 : (max - min) / 65535;
+            this.quantized = new short[values.length];
+            for (int i = 0; i < values.length; i++) {
+                quantized[i] = (short) (step == 0 ? 0 : Math.round((values[i] - this.min) / step));
+            }
+        }
+
+        @Override
+        float get(int doc) {
+            return min + (quantized[doc] & 0xFFFF) * step;
+        }
+
+        @Override
+        public long ramBytesUsed() {
+            return RamUsageEstimator.sizeOf(quantized);
+        }
+
+        @Override
+        String storage() {
+            return "16-bit";
+        }
+    }
+
+    /**
+     * Floats in a memory-mapped file, deleted when the column is closed.
+     */
+    static final class DiskColumn extends BVAColumn {
+        private final ColumnFile file;
+        private final RandomAccessInput values;
+
+        DiskColumn(float[] values, Path spillDir) throws IOException {
+            this.file = new ColumnFile(values, spillDir);
+            this.values = file.in.randomAccessSlice(0, file.in.length());
+        }
+
+        @Override
+        float get(int doc) {
+            try {
+                return Float.intBitsToFloat(values.readInt((long) doc * Integer.BYTES));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public long ramBytesUsed() {
+            return 0;
+        }
+
+        @Override
+        long diskBytesUsed() {
+            return file.in.length();
+        }
+
+        @Override
+        String storage() {
+            return "disk";
+        }
+
+        @Override
+        Closeable file() {
+            return file;
+        }
+    }
+
+    /**
+     * The mapped file of a {@link DiskColumn}, kept apart from the column so it can be closed
+     * after the column itself became unreachable. Closing it more than once does nothing.
+     */
+    private static final class ColumnFile implements Closeable {
+        private final Directory dir;
+        private final String name;
+        private final IndexInput in;
+        private boolean closed;
+
+        ColumnFile(float[] values, Path spillDir) throws IOException {
+            this.dir = new MMapDirectory(spillDir);
+            this.name = "bva-" + Long.toHexString(System.nanoTime()) + "-" + FILE_COUNTER.incrementAndGet() + ".col";
+            try (IndexOutput out = dir.createOutput(name, IOContext.DEFAULT)) {
+                for (float value : values) {
+                    out.writeInt(Float.floatToIntBits(value));
+                }
+            }
+            this.in = dir.openInput(name, IOContext.READ);
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                in.close();
+                dir.deleteFile(name);
+            } finally {
+                dir.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package main;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.util.ArrayUtil;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads a run written by {@link BinaryRunWriter}, one topic at a time: either all topics
+ * in file order with {@link #next()}, or single topics with {@link #seekTopic}.
+ * The docno dictionary and the topic index are loaded on open.
+ */
+public class BinaryRunReader implements Closeable {
+    private final Directory dir;
+    private final IndexInput in;
+    private final String runTag;
+    private final String[] docnoDictionary;
+    private final Map<String, Integer> topicOrds = new HashMap<>();
+    private final String[] topics;
+    private final long[] pointers;
+    private final int[] counts;
+    private int ord = -1;
+    private int[] docnoIds = new int[0];
+    private float[] scores = new float[0];
+
+    private BinaryRunReader(Directory dir, IndexInput in) throws IOException {
+        this.dir = dir;
+        this.in = in;
+        CodecUtil.checkHeader(in, BinaryRunWriter.CODEC, BinaryRunWriter.VERSION, BinaryRunWriter.VERSION);
+        runTag = in.readString();
+        long blocksStart = in.getFilePointer();
+        in.seek(in.length() - CodecUtil.footerLength() - Long.BYTES);
+        in.seek(in.readLong());
+        docnoDictionary = new String[in.readVInt()];
+        for (int i = 0; i < docnoDictionary.length; i++) {
+            docnoDictionary[i] = in.readString();
+        }
+        int numTopics = in.readVInt();
+        topics = new String[numTopics];
+        pointers = new long[numTopics];
+        counts = new int[numTopics];
+        for (int i = 0; i < numTopics; i++) {
+            topics[i] = in.readString();
+            topicOrds.put(topics[i], i);
+            pointers[i] = in.readVLong();
+            counts[i] = in.readVInt();
+        }
+        in.seek(blocksStart);
+    }
+
+    /**
+     * @param file a run written by {@link BinaryRunWriter}
+     * @return the reader, positioned before the first topic
+     * @throws IOException if the file is missing or corrupt
+     */
+    public static BinaryRunReader open(File file) throws IOException {
+        File absolute = file.getAbsoluteFile();
+        Directory dir = FSDirectory.open(absolute.getParentFile().toPath());
+        IndexInput in = null;
+        try {
+            in = dir.openInput(absolute.getName(), IOContext.READONCE);
+            CodecUtil.checksumEntireFile(in);
+            in.seek(0);
+            return new BinaryRunReader(dir, in);
+        } catch (IOException | RuntimeException e) {
+            if (in != null) {
+                in.close();
+            }
+            dir.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the similarity name used in the run tag
+     */
+    public String runTag() {
+        return runTag;
+    }
+
+    /**
+     * @return the topic numbers in file order
+     */
+    public List<String> topics() {
+        return Collections.unmodifiableList(Arrays.asList(topics));
+    }
+
+    /**
+     * Decodes the hits of the next topic in file order
+     * @return false if there are no more topics
+     * @throws IOException
+     */
+    public boolean next() throws IOException {
+        if (ord + 1 >= pointers.length) {
+            return false;
+        }
+        read(ord + 1);
+        return true;
+    }
+
+    /**
+     * Decodes the hits of one topic; {@link #next()} continues after it
+     * @param topic the topic number
+     * @return false if the run has no hits for the topic
+     * @throws IOException
+     */
+    public boolean seekTopic(String topic) throws IOException {
+        Integer topicOrd = topicOrds.get(topic);
+        if (topicOrd == null) {
+            return false;
+        }
+        read(topicOrd);
+        return true;
+    }
+
+    private void read(int topicOrd) throws IOException {
+        ord = topicOrd;
+        int count = counts[ord];
+        docnoIds = ArrayUtil.grow(docnoIds, count);
+        scores = ArrayUtil.grow(scores, count);
+        in.seek(pointers[ord]);
+        int scoreBits = 0;
+        for (int i = 0; i < count; i++) {
+            docnoIds[i] = in.readVInt();
+            scoreBits -= in.readZInt();
+            scores[i] = Float.intBitsToFloat(scoreBits);
+        }
+    }
+
+    /**
+     * @return the number of the current topic
+     */
+    public String topic() {
+        return topics[ord];
+    }
+
+    /**
+     * @return the number of hits of the current topic
+     */
+    public int size() {
+        return counts[ord];
+    }
+
+    /**
+     * @param i the rank of the hit minus one
+     * @return the docno of the hit of the current topic
+     */
+    public String docno(int i) {
+        return docnoDictionary[docnoIds[i]];
+    }
+
+    /**
+     * @param i the rank of the hit minus one
+     * @return the score of the hit of the current topic
+     */
+    public float score(int i) {
+        return scores[i];
+    }
+
+    /**
+     * Converts a binary run into the TREC text run that {@link TrecRunWriter} would have written
+     * @param binary a run written by {@link BinaryRunWriter}
+     * @param text the TREC run file, replaced if it exists
+     * @throws IOException
+     */
+    public static void toTrec(File binary, File text) throws IOException {
+        try (BinaryRunReader reader = open(binary);
+             RunWriter writer = new TrecRunWriter(text, reader.runTag())) {
+            while (reader.next()) {
+                writer.startTopic(reader.topic());
+                for (int i = 0; i < reader.size(); i++) {
+                    writer.add(reader.docno(i), reader.score(i));
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            in.close();
+        } finally {
+            dir.close();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package main;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.BytesRefHash;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes a run in a compact binary format, read back by {@link BinaryRunReader}:
+ * <ul>
+ *   <li>header and run tag</li>
+ *   <li>the hits of each topic in rank order, as the vInt id of the docno in the docno
+ *       dictionary and the zig-zag vInt difference of the score bits to the previous hit's.
+ *       Scores of a topic are sorted, so these differences are small and scores stay exact</li>
+ *   <li>the docno dictionary, in order of first occurrence</li>
+ *   <li>the topic index: topic number, file pointer and number of hits of each topic</li>
+ *   <li>the file pointer of the dictionary and the checksum footer</li>
+ * </ul>
+ * Hits are streamed to the file, only the docno dictionary and the topic index are held in memory.
+ */
+public class BinaryRunWriter implements RunWriter {
+    static final String EXTENSION = ".bin";
+    static final String CODEC = "BinaryRun";
+    static final int VERSION = 0;
+
+    private final Directory dir;
+    private final IndexOutput out;
+    /** the docno dictionary, ids in order of first occurrence */
+    private final BytesRefHash docnos = new BytesRefHash();
+    private final BytesRefBuilder docnoBytes = new BytesRefBuilder();
+    private final List<String> topics = new ArrayList<>();
+    private final List<Long> pointers = new ArrayList<>();
+    private final List<Integer> counts = new ArrayList<>();
+    private int count;
+    private int lastScoreBits;
+
+    /**
+     * @param file the run file, replaced if it exists
+     * @param runTag the similarity name used in the run tag
+     * @throws IOException
+     */
+    public BinaryRunWriter(File file, String runTag) throws IOException {
+        File absolute = file.getAbsoluteFile();
+        Files.deleteIfExists(absolute.toPath());
+        dir = FSDirectory.open(absolute.getParentFile().toPath());
+        out = dir.createOutput(absolute.getName(), IOContext.DEFAULT);
+        CodecUtil.writeHeader(out, CODEC, VERSION);
+        out.writeString(runTag);
+    }
+
+    @Override
+    public void startTopic(String topic) {
+        finishTopic();
+        topics.add(topic);
+        pointers.add(out.getFilePointer());
+        count = 0;
+        lastScoreBits = 0;
+    }
+
+    @Override
+    public void add(String docno, float score) throws IOException {
+        docnoBytes.copyChars(docno);
+        add(docnoBytes.get(), score);
+    }
+
+    @Override
+    public void add(BytesRef docno, float score) throws IOException {
+        int id = docnos.add(docno);
+        out.writeVInt(id < 0 ? -id - 1 : id);
+        int scoreBits = Float.floatToIntBits(score);
+        out.writeZInt(lastScoreBits - scoreBits);
+        lastScoreBits = scoreBits;
+        count++;
+    }
+
+    private void finishTopic() {
+        if (counts.size() < topics.size()) {
+            counts.add(count);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finishTopic();
+            long dictionaryPointer = out.getFilePointer();
+            out.writeVInt(docnos.size());
+            BytesRef docno = new BytesRef();
+            for (int id = 0; id < docnos.size(); id++) {
+                // the same bytes as writeString of the docno
+                docnos.get(id, docno);
+                out.writeVInt(docno.length);
+                out.writeBytes(docno.bytes, docno.offset, docno.length);
+            }
+            out.writeVInt(topics.size());
+            for (int i = 0; i < topics.size(); i++) {
+                out.writeString(topics.get(i));
+                out.writeVLong(pointers.get(i));
+                out.writeVInt(counts.get(i));
+            }
+            out.writeLong(dictionaryPointer);
+            CodecUtil.writeFooter(out);
+        } finally {
+            out.close();
+            dir.close();
+        }
+    }
+}
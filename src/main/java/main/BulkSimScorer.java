@@ -0,0 +1,19 @@
+package main;
+
+/**
+ * Scores a block of postings of one segment in a single call. Implemented by the
+ * {@link org.apache.lucene.search.similarities.Similarity.SimScorer}s of the BM25 variants:
+ * the norms of the whole block are looked up first, then the scores are computed in a
+ * straight loop over plain arrays. Scores are identical to those of {@code score(doc, freq)}.
+ * Like the scorer itself, not thread-safe.
+ */
+public interface BulkSimScorer {
+    /**
+     * Scores the first n postings of a block
+     * @param docs segment-local document ids
+     * @param freqs the term frequency of each document
+     * @param out receives the score of each posting at the same index
+     * @param n the number of postings in the block
+     */
+    void score(int[] docs, float[] freqs, float[] out, int n);
+}
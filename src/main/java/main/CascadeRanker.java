@@ -0,0 +1,128 @@
+package main;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryRescorer;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.similarities.MultiSimilarity;
+import org.apache.lucene.search.similarities.Similarity;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Two-stage retrieval: the top hits are retrieved with the cheap {@link BM25SimilarityOriginal},
+ * then only the first {@code depth} of them are rescored with an expensive similarity.
+ * The rescoring visits the candidates in doc id order, one segment after the other, so the
+ * per-document statistics of the expensive similarity (e.g. the BM25VA B_VA column) are read
+ * as one batch per segment.
+ */
+public class CascadeRanker {
+    private final IndexSearcher firstPass;
+    private final IndexSearcher secondPass;
+    private final int depth;
+
+    /**
+     * @param reader the index, searched by both stages
+     * @param expensive the similarity of the second stage
+     * @param depth how many first-stage hits are rescored
+     */
+    public CascadeRanker(IndexReader reader, Similarity expensive, int depth) throws IOException {
+        this.firstPass = new SimilaritySearcherFactory(new BM25SimilarityOriginal()).newSearcher(reader, null);
+        this.secondPass = new SimilaritySearcherFactory(expensive).newSearcher(reader, null);
+        this.depth = depth;
+    }
+
+    /**
+     * @param name "L" for BM25L, "combined" for the sum of BM25VA and BM25L, BM25VA otherwise
+     * @return the similarity of the second stage
+     */
+    static Similarity expensiveSimilarity(String name) {
+        if (name.equals("L")) {
+            return new BM25LSimilarity();
+        } else if (name.equals("combined")) {
+            return new MultiSimilarity(new Similarity[]{new BM25VASimilarity(), new BM25LSimilarity()});
+        }
+        return new BM25VASimilarity();
+    }
+
+    /**
+     * Searches with both stages
+     * @param query the query of both stages
+     * @param n the number of hits to return
+     * @return the rescored top hits, followed by the remaining first-stage hits with their
+     *         scores scaled below the lowest rescored score, so the ranking stays consistent
+     * @throws IOException
+     */
+    public TopDocs search(Query query, int n) throws IOException {
+        TopDocs first = firstPass.search(query, Math.max(n, depth));
+        ScoreDoc[] hits = first.scoreDocs;
+        int rescored = Math.min(depth, hits.length);
+        if (rescored == 0) {
+            return first;
+        }
+        long start = Metrics.start();
+        TopDocs candidates = new TopDocs(first.totalHits, Arrays.copyOf(hits, rescored), first.getMaxScore());
+        TopDocs top = new QueryRescorer(query) {
+            @Override
+            protected float combine(float firstPassScore, boolean secondPassMatches, float secondPassScore) {
+                return secondPassMatches ? secondPassScore : 0;
+            }
+        }.rescore(secondPass, candidates, rescored);
+        Metrics.record("query.rescore", start);
+
+        ScoreDoc[] merged = new ScoreDoc[Math.min(n, hits.length)];
+        System.arraycopy(top.scoreDocs, 0, merged, 0, Math.min(merged.length, rescored));
+        float lowest = top.scoreDocs[rescored - 1].score;
+        float boundary = hits[rescored - 1].score;
+        for (int i = rescored; i < merged.length; i++) {
+            float scaled = boundary > 0 ? lowest * hits[i].score / boundary : 0;
+            merged[i] = new ScoreDoc(hits[i].doc, Math.min(scaled, lowest), hits[i].shardIndex);
+        }
+        return new TopDocs(first.totalHits, merged, top.getMaxScore());
+    }
+
+    /**
+     * Runs all topics with the cheap stage alone, the expensive similarity alone and the cascade
+     * at each depth, writes one run per depth and prints latency and MAP of each
+     * @param topics the topics to run
+     * @param analyzer the analyzer used for the query parser
+     * @param reader the index
+     * @param model the expensive similarity, see {@link #expensiveSimilarity}
+     * @param depths the rescoring depths to compare
+     * @throws IOException
+     * @throws ParseException
+     */
+    static void compareDepths(TreeMap<String, String> topics, Analyzer analyzer, IndexReader reader,
+                              String model, int[] depths) throws IOException, ParseException {
+        TrecEvaluation evaluation = TrecEvaluation.fromProperties();
+        Map<String, Query> queries = new TreeMap<>();
+        for (Map.Entry<String, String> topic : topics.entrySet()) {
+            queries.put(topic.getKey(), new QueryParser("contents", analyzer).parse(topic.getValue()));
+        }
+        Similarity expensive = expensiveSimilarity(model);
+        System.out.println("Cascade BM25 -> " + model + ", " + topics.size() + " topics");
+        System.out.println("  stage            ms/query      MAP");
+        report("  BM25 only", queries, reader, new BM25SimilarityOriginal(), 0, evaluation, null);
+        report("  " + model + " only", queries, reader, expensive, 0, evaluation, null);
+        for (int depth : depths) {
+            report("  cascade@" + depth, queries, reader, expensive, depth, evaluation, model + "-cascade" + depth);
+        }
+    }
+
+    private static void report(String label, Map<String, Query> queries, IndexReader reader, Similarity similarity,
+                               int depth, TrecEvaluation evaluation, String runName) throws IOException {
+        CascadeRanker cascade = depth > 0 ? new CascadeRanker(reader, similarity, depth) : null;
+        IndexSearcher single = new SimilaritySearcherFactory(similarity).newSearcher(reader, null);
+        RunMeasurement measured = RunMeasurement.measure(queries, reader,
+                cascade != null ? cascade::search : single::search, evaluation, runName);
+        System.out.printf("%-18s %9.3f %8s%n", label, measured.msPerQuery(), measured.map());
+    }
+}
@@ -0,0 +1,137 @@
+package main;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Writes a synthetic collection in the TREC &lt;DOC&gt;/&lt;DOCNO&gt;/&lt;TEXT&gt; format, for measuring
+ * indexing and search without the licensed TREC disks. Words are drawn from a Zipfian distribution
+ * over the vocabulary, document lengths from a log-normal distribution, which is close to the
+ * long-tailed lengths of newswire collections. The same parameters and seed always give the same files.
+ * <p>
+ * The word of rank r is a string of consonant-vowel syllables, so frequent words are short and
+ * none of them is an English stopword.
+ */
+public class CorpusGenerator {
+    private static final String CONSONANTS = "bcdfghjklmnprstvz";
+    private static final String VOWELS = "aeiou";
+    private static final int SYLLABLES = CONSONANTS.length() * VOWELS.length();
+    private static final int WORDS_PER_LINE = 12;
+
+    private final int numDocs;
+    private final int docsPerFile;
+    private final double meanLength;
+    private final double lengthSigma;
+    private final long seed;
+    private final String[] vocabulary;
+    /** cumulative probability of the ranks, searched to draw a word */
+    private final double[] cdf;
+
+    /**
+     * @param numDocs the number of documents
+     * @param docsPerFile the number of documents per file
+     * @param vocabularySize the number of distinct words
+     * @param zipfExponent s of the Zipf distribution, rank r is drawn with probability proportional to 1 / r<sup>s</sup>
+     * @param meanLength the mean number of words per document
+     * @param lengthSigma the sigma of the log-normal length distribution, larger values give a longer tail
+     * @param seed the seed of the random numbers
+     */
+    public CorpusGenerator(int numDocs, int docsPerFile, int vocabularySize, double zipfExponent,
+                           double meanLength, double lengthSigma, long seed) {
+        this.numDocs = numDocs;
+        this.docsPerFile = docsPerFile;
+        this.meanLength = meanLength;
+        this.lengthSigma = lengthSigma;
+        this.seed = seed;
+        this.vocabulary = new String[vocabularySize];
+        this.cdf = new double[vocabularySize];
+        double sum = 0;
+        for (int r = 0; r < vocabularySize; r++) {
+            vocabulary[r] = word(r);
+            sum += 1 / Math.pow(r + 1, zipfExponent);
+            cdf[r] = sum;
+        }
+        for (int r = 0; r < vocabularySize; r++) {
+            cdf[r] /= sum;
+        }
+    }
+
+    /**
+     * @param rank the frequency rank, 0 for the most frequent word
+     * @return the word of that rank, at least two syllables long
+     */
+    static String word(int rank) {
+        StringBuilder word = new StringBuilder();
+        for (long n = rank + SYLLABLES; n > 0; n /= SYLLABLES) {
+            int syllable = (int) (n % SYLLABLES);
+            word.append(CONSONANTS.charAt(syllable / VOWELS.length())).append(VOWELS.charAt(syllable % VOWELS.length()));
+        }
+        return word.toString();
+    }
+
+    /**
+     * Writes the collection as files synthetic-00000, synthetic-00001, ... and a topics file
+     * @param docsDir the directory of the collection, created if necessary
+     * @param topicsFile the TREC topics file, whose titles are drawn from the mid-frequency words
+     * @param numTopics the number of topics
+     * @return the number of bytes of the collection
+     * @throws IOException
+     */
+    public long generate(File docsDir, File topicsFile, int numTopics) throws IOException {
+        if (!docsDir.isDirectory() && !docsDir.mkdirs()) {
+            throw new IOException("Cannot create " + docsDir);
+        }
+        Random random = new Random(seed);
+        double mu = Math.log(meanLength) - lengthSigma * lengthSigma / 2;
+        long bytes = 0;
+        StringBuilder doc = new StringBuilder();
+        for (int file = 0; file * (long) docsPerFile < numDocs; file++) {
+            File out = new File(docsDir, String.format("synthetic-%05d", file));
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(out), StandardCharsets.US_ASCII), 1 << 16)) {
+                for (int d = file * docsPerFile; d < Math.min(numDocs, (file + 1) * docsPerFile); d++) {
+                    doc.setLength(0);
+                    doc.append("<DOC>\n<DOCNO> ").append(String.format("SYN-%08d", d + 1)).append(" </DOCNO>\n<TEXT>\n");
+                    int length = Math.max(1, (int) Math.round(Math.exp(mu + lengthSigma * random.nextGaussian())));
+                    for (int w = 0; w < length; w++) {
+                        doc.append(vocabulary[draw(random)]).append(w % WORDS_PER_LINE == WORDS_PER_LINE - 1 ? '\n' : ' ');
+                    }
+                    doc.append("\n</TEXT>\n</DOC>\n");
+                    writer.append(doc);
+                    bytes += doc.length();
+                }
+            }
+        }
+        writeTopics(topicsFile, numTopics, random);
+        return bytes;
+    }
+
+    private int draw(Random random) {
+        int r = Arrays.binarySearch(cdf, random.nextDouble());
+        return Math.min(r < 0 ? -r - 1 : r, cdf.length - 1);
+    }
+
+    /**
+     * Topics of two to four words with ranks between 100 and 10000, so they are neither
+     * stopword-like nor unseen in small collections
+     */
+    private void writeTopics(File topicsFile, int numTopics, Random random) throws IOException {
+        int from = Math.min(100, vocabulary.length - 1), to = Math.min(10000, vocabulary.length);
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(topicsFile), StandardCharsets.US_ASCII))) {
+            for (int t = 0; t < numTopics; t++) {
+                writer.append("<top>\n<num> Number: ").append(Integer.toString(401 + t)).append("\n<title>");
+                int words = 2 + random.nextInt(3);
+                for (int w = 0; w < words; w++) {
+                    writer.append(' ').append(vocabulary[from + random.nextInt(Math.max(1, to - from))]);
+                }
+                writer.append("\n</top>\n\n");
+            }
+        }
+    }
+}
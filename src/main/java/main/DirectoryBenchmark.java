@@ -0,0 +1,93 @@
+package main;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares the storage backends: indexing throughput of building on disk against building
+ * in RAM and copying at the end, then open time and query latency of searching the index
+ * through each {@link Main#openDirectory} backend.
+ */
+public class DirectoryBenchmark {
+    static final String[] BUILD_BACKENDS = {"fs", "ram"};
+    static final String[] SEARCH_BACKENDS = {"fs", "mmap", "nio", "ram"};
+
+    /**
+     * Runs the benchmark and prints one line per backend
+     * @param benchDir scratch directory, one index per build backend is created in it
+     * @param docs the collection that is indexed
+     * @param topics the queries, run rounds times against each search backend
+     * @param rounds how often all topics are run, the first round is reported separately
+     * @param analyzer the analyzer to be used to preprocess the data
+     * @param bm25 the similarity function to be used
+     * @throws IOException
+     * @throws ParseException
+     */
+    static void run(File benchDir, File docs, Map<String, String> topics, int rounds, Analyzer analyzer, Similarity bm25)
+            throws IOException, ParseException {
+        List<Query> queries = new ArrayList<>();
+        for (String querystr : topics.values()) {
+            queries.add(new QueryParser("contents", analyzer).parse(querystr));
+        }
+
+        System.out.println("build     docs   time ms   docs/s");
+        Path searchPath = null;
+        for (String backend : BUILD_BACKENDS) {
+            Path path = new File(benchDir, backend).toPath();
+            try (FSDirectory dir = FSDirectory.open(path)) {
+                Main.deleteIndexFiles(dir);
+                long start = System.nanoTime();
+                int numDocs = Main.buildIndex(dir, docs, backend.equals("ram"), analyzer, bm25);
+                long nanos = System.nanoTime() - start;
+                System.out.printf("%-6s %7d %9d %8.0f%n", backend, numDocs, nanos / 1000000, numDocs / (nanos / 1e9));
+            }
+            searchPath = path;
+        }
+
+        System.out.println("search  open ms  first round ms/q  steady ms/q   p50 ms   p99 ms");
+        for (String backend : SEARCH_BACKENDS) {
+            long start = System.nanoTime();
+            Directory dir = Main.openDirectory(searchPath, backend);
+            DirectoryReader reader = DirectoryReader.open(dir);
+            long openNanos = System.nanoTime() - start;
+            IndexSearcher searcher = new SimilaritySearcherFactory(bm25).newSearcher(reader, null);
+
+            long firstRound = 0;
+            LatencyHistogram steady = new LatencyHistogram();
+            for (int round = 0; round < rounds; round++) {
+                for (Query query : queries) {
+                    start = System.nanoTime();
+                    for (ScoreDoc hit : searcher.search(query, Main.hitsPerPage).scoreDocs) {
+                        Main.docno(reader, hit.doc);
+                    }
+                    long nanos = System.nanoTime() - start;
+                    if (round == 0) {
+                        firstRound += nanos;
+                    } else {
+                        steady.record(nanos);
+                    }
+                }
+            }
+            System.out.printf("%-6s %8.1f %17.3f %12.3f %8.3f %8.3f%n", backend, openNanos / 1e6,
+                    firstRound / 1e6 / Math.max(1, queries.size()), steady.getMean() / 1e6,
+                    steady.getQuantile(0.5) / 1e6, steady.getQuantile(0.99) / 1e6);
+            reader.close();
+            dir.close();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package main;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Resolves the docnos of hits as UTF-8 bytes without creating a String per hit, for one thread:
+ * the docno doc values of every segment are opened once and their bytes are returned as they
+ * are. Segments without doc values fall back to the stored field, like {@link Main#docno}.
+ */
+public class DocnoLookup {
+    private final IndexReader reader;
+    private final List<LeafReaderContext> leaves;
+    private final SortedDocValues[] docnos;
+    private final BytesRefBuilder stored = new BytesRefBuilder();
+
+    /**
+     * @param reader the reader the hits are found in
+     * @throws IOException
+     */
+    public DocnoLookup(IndexReader reader) throws IOException {
+        this.reader = reader;
+        this.leaves = reader.leaves();
+        this.docnos = new SortedDocValues[leaves.size()];
+        for (int i = 0; i < docnos.length; i++) {
+            docnos[i] = leaves.get(i).reader().getSortedDocValues("docno");
+        }
+    }
+
+    /**
+     * @param doc the document id
+     * @return the docno, only valid until the next call
+     * @throws IOException
+     */
+    public BytesRef get(int doc) throws IOException {
+        int leaf = ReaderUtil.subIndex(doc, leaves);
+        if (docnos[leaf] != null) {
+            return docnos[leaf].get(doc - leaves.get(leaf).docBase);
+        }
+        stored.copyChars(reader.document(doc).get("docno"));
+        return stored.get();
+    }
+}
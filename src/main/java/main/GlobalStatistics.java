@@ -0,0 +1,195 @@
+package main;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.search.CollectionStatistics;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermStatistics;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The collection and term statistics of one field, summed over several shards: everything
+ * BM25 needs for idf and avgdl, plus the aggregates BM25VA derives mavgtf from.
+ */
+public class GlobalStatistics {
+    private final String field;
+    private long maxDoc;
+    private long docCount;
+    private long sumTotalTermFreq;
+    private long sumDocFreq;
+    /**
+     * sum of Ld / Td over all documents, for BM25VA only
+     */
+    private double sumOfAverageTermFrequencies;
+    /**
+     * number of documents sumOfAverageTermFrequencies was computed over
+     */
+    private long vaDocs;
+    /**
+     * docFreq and totalTermFreq of each term
+     */
+    private final Map<BytesRef, long[]> terms = new HashMap<>();
+
+    public GlobalStatistics(String field) {
+        this.field = field;
+    }
+
+    /**
+     * Computes the local statistics of one shard
+     * @param searcher the searcher of the shard
+     * @param field the field the statistics are for
+     * @param queryTerms the terms to include term statistics for
+     * @return the statistics of the shard alone
+     * @throws IOException
+     */
+    public static GlobalStatistics collect(IndexSearcher searcher, String field, Collection<Term> queryTerms) throws IOException {
+        GlobalStatistics stats = new GlobalStatistics(field);
+        CollectionStatistics collectionStats = searcher.collectionStatistics(field);
+        stats.maxDoc = collectionStats.maxDoc();
+        stats.docCount = collectionStats.docCount() == -1 ? collectionStats.maxDoc() : collectionStats.docCount();
+        stats.sumTotalTermFreq = collectionStats.sumTotalTermFreq();
+        stats.sumDocFreq = collectionStats.sumDocFreq();
+        for (Term term : queryTerms) {
+            if (!term.field().equals(field) || stats.terms.containsKey(term.bytes())) {
+                continue;
+            }
+            TermContext context = TermContext.build(searcher.getTopReaderContext(), term);
+            stats.terms.put(BytesRef.deepCopyOf(term.bytes()), new long[]{context.docFreq(), context.totalTermFreq()});
+        }
+        Similarity similarity = searcher.getSimilarity(true);
+        if (similarity instanceof BM25VASimilarity) {
+            for (LeafReaderContext leaf : searcher.getIndexReader().leaves()) {
+                stats.sumOfAverageTermFrequencies +=
+                        ((BM25VASimilarity) similarity).averageTermFrequencySum(leaf.reader(), field);
+                stats.vaDocs += leaf.reader().maxDoc();
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Adds the statistics of another shard to these
+     */
+    public void add(GlobalStatistics other) {
+        if (!field.equals(other.field)) {
+            throw new IllegalArgumentException("statistics of field " + other.field + " cannot be added to " + field);
+        }
+        maxDoc += other.maxDoc;
+        docCount += other.docCount;
+        sumTotalTermFreq += other.sumTotalTermFreq;
+        sumDocFreq += other.sumDocFreq;
+        sumOfAverageTermFrequencies += other.sumOfAverageTermFrequencies;
+        vaDocs += other.vaDocs;
+        addTermStatistics(other);
+    }
+
+    /**
+     * Adds only the term statistics of other shards to these, e.g. for terms
+     * that were not requested before
+     */
+    public void addTermStatistics(GlobalStatistics other) {
+        for (Map.Entry<BytesRef, long[]> entry : other.terms.entrySet()) {
+            long[] stats = terms.get(entry.getKey());
+            if (stats == null) {
+                terms.put(entry.getKey(), entry.getValue().clone());
+            } else {
+                stats[0] += entry.getValue()[0];
+                stats[1] += entry.getValue()[1];
+            }
+        }
+    }
+
+    /**
+     * @return whether term statistics were collected for the term
+     */
+    public boolean hasTerm(BytesRef term) {
+        return terms.containsKey(term);
+    }
+
+    /**
+     * @return the collection statistics with only the term statistics of the given terms
+     */
+    public GlobalStatistics subset(Collection<Term> queryTerms) {
+        GlobalStatistics subset = new GlobalStatistics(field);
+        subset.maxDoc = maxDoc;
+        subset.docCount = docCount;
+        subset.sumTotalTermFreq = sumTotalTermFreq;
+        subset.sumDocFreq = sumDocFreq;
+        subset.sumOfAverageTermFrequencies = sumOfAverageTermFrequencies;
+        subset.vaDocs = vaDocs;
+        for (Term term : queryTerms) {
+            long[] stats = terms.get(term.bytes());
+            if (stats != null) {
+                subset.terms.put(term.bytes(), stats);
+            }
+        }
+        return subset;
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    public CollectionStatistics collectionStatistics() {
+        return new BM25VASimilarity.GlobalCollectionStatistics(field, maxDoc, docCount, sumTotalTermFreq, sumDocFreq, mavgtf());
+    }
+
+    /**
+     * @return the statistics of the term, or null if they were not collected
+     */
+    public TermStatistics termStatistics(BytesRef term) {
+        long[] stats = terms.get(term);
+        return stats == null ? null : new TermStatistics(term, stats[0], stats[1]);
+    }
+
+    /**
+     * @return the BM25VA mean average term frequency over all shards, NaN if not collected
+     */
+    public float mavgtf() {
+        return vaDocs == 0 ? Float.NaN : (float) (sumOfAverageTermFrequencies / vaDocs);
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeUTF(field);
+        out.writeLong(maxDoc);
+        out.writeLong(docCount);
+        out.writeLong(sumTotalTermFreq);
+        out.writeLong(sumDocFreq);
+        out.writeDouble(sumOfAverageTermFrequencies);
+        out.writeLong(vaDocs);
+        out.writeInt(terms.size());
+        for (Map.Entry<BytesRef, long[]> entry : terms.entrySet()) {
+            BytesRef term = entry.getKey();
+            out.writeInt(term.length);
+            out.write(term.bytes, term.offset, term.length);
+            out.writeLong(entry.getValue()[0]);
+            out.writeLong(entry.getValue()[1]);
+        }
+    }
+
+    public static GlobalStatistics read(DataInput in) throws IOException {
+        GlobalStatistics stats = new GlobalStatistics(in.readUTF());
+        stats.maxDoc = in.readLong();
+        stats.docCount = in.readLong();
+        stats.sumTotalTermFreq = in.readLong();
+        stats.sumDocFreq = in.readLong();
+        stats.sumOfAverageTermFrequencies = in.readDouble();
+        stats.vaDocs = in.readLong();
+        int numTerms = in.readInt();
+        for (int i = 0; i < numTerms; i++) {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            stats.terms.put(new BytesRef(bytes), new long[]{in.readLong(), in.readLong()});
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,388 @@
+package main;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.*;
+import org.apache.lucene.search.CollectionStatistics;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermStatistics;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.RAMOutputStream;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Impact-ordered postings for one fixed similarity and parameter set.
+ * Every posting of a field is scored once with the similarity, quantized to
+ * {@link #LEVELS} levels and stored grouped by impact, highest impact first.
+ * A query then only adds up precomputed impacts, see {@link ImpactSearcher}.
+ */
+public class ImpactIndex implements Closeable {
+    static final String FILE_NAME = "impacts.bin";
+    private static final String CODEC = "ImpactIndex";
+    private static final int VERSION = 1;
+    /**
+     * number of quantization levels, impact 0 is never stored
+     */
+    static final int LEVELS = 255;
+
+    private final IndexInput in;
+    private final Map<String, Long> termPointers;
+    private final String description;
+    private final String field;
+    private final int maxDoc;
+    private final float maxScore;
+
+    private ImpactIndex(IndexInput in) throws IOException {
+        this.in = in;
+        CodecUtil.checkHeader(in, CODEC, VERSION, VERSION);
+        description = in.readString();
+        field = in.readString();
+        maxDoc = in.readVInt();
+        maxScore = Float.intBitsToFloat(in.readInt());
+        int numTerms = in.readVInt();
+        termPointers = new HashMap<>(numTerms * 2);
+        for (int i = 0; i < numTerms; i++) {
+            String term = in.readString();
+            long length = in.readVLong();
+            termPointers.put(term, in.getFilePointer());
+            in.seek(in.getFilePointer() + length);
+        }
+    }
+
+    /**
+     * Opens an impact index written by {@link #build}. Only the term dictionary is
+     * loaded, postings are read from the directory when a query needs them.
+     * @param dir the directory holding the impact index
+     * @return the opened impact index
+     * @throws IOException if the file is missing or corrupt
+     */
+    public static ImpactIndex open(Directory dir) throws IOException {
+        IndexInput in = dir.openInput(FILE_NAME, IOContext.READ);
+        try {
+            CodecUtil.checksumEntireFile(in);
+            in.seek(0);
+            return new ImpactIndex(in);
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Scores every posting of a field with the given similarity and writes the quantized,
+     * impact-ordered postings to the directory.
+     * @param reader the index built by setUpIndex
+     * @param similarity the similarity the impacts are computed with, null for Lucene's default
+     * @param field the field to score
+     * @param dir where the impact index is written
+     * @throws IOException
+     */
+    public static void build(IndexReader reader, Similarity similarity, String field, Directory dir) throws IOException {
+        IndexSearcher searcher = new IndexSearcher(reader);
+        if (similarity != null) {
+            searcher.setSimilarity(similarity);
+        }
+        PostingsScorer scorer = new PostingsScorer(searcher, field);
+
+        // first pass: global maximum for quantization and number of terms
+        float maxScore = 0;
+        int numTerms = 0;
+        Terms terms = MultiFields.getTerms(reader, field);
+        TermsEnum termsEnum = terms == null ? TermsEnum.EMPTY : terms.iterator();
+        BytesRef term;
+        while ((term = termsEnum.next()) != null) {
+            scorer.score(term);
+            for (int i = 0; i < scorer.size; i++) {
+                maxScore = Math.max(maxScore, scorer.scores[i]);
+            }
+            numTerms++;
+        }
+
+        IndexOutput out = dir.createOutput(FILE_NAME, IOContext.DEFAULT);
+        try {
+            CodecUtil.writeHeader(out, CODEC, VERSION);
+            out.writeString(searcher.getSimilarity(true).toString());
+            out.writeString(field);
+            out.writeVInt(reader.maxDoc());
+            out.writeInt(Float.floatToIntBits(maxScore));
+            out.writeVInt(numTerms);
+
+            // second pass: quantize and write the postings of each term grouped by impact
+            RAMOutputStream buffer = new RAMOutputStream();
+            scorer = new PostingsScorer(searcher, field);
+            int[] counts = new int[LEVELS + 1];
+            int[] sorted = new int[0];
+            termsEnum = terms == null ? TermsEnum.EMPTY : terms.iterator();
+            while ((term = termsEnum.next()) != null) {
+                scorer.score(term);
+                byte[] impacts = new byte[scorer.size];
+                Arrays.fill(counts, 0);
+                for (int i = 0; i < scorer.size; i++) {
+                    int impact = quantize(scorer.scores[i], maxScore);
+                    impacts[i] = (byte) impact;
+                    counts[impact]++;
+                }
+                // counting sort by impact descending, docs stay ascending within an impact
+                int[] starts = new int[LEVELS + 2];
+                for (int impact = LEVELS; impact > 0; impact--) {
+                    starts[impact - 1] = starts[impact] + counts[impact];
+                }
+                sorted = ArrayUtil.grow(sorted, scorer.size);
+                for (int i = 0; i < scorer.size; i++) {
+                    sorted[starts[impacts[i] & 0xFF]++] = scorer.docs[i];
+                }
+
+                int segments = 0;
+                for (int impact = LEVELS; impact > 0; impact--) {
+                    if (counts[impact] > 0) {
+                        segments++;
+                    }
+                }
+                buffer.writeVInt(segments);
+                int upto = 0;
+                for (int impact = LEVELS; impact > 0; impact--) {
+                    if (counts[impact] == 0) {
+                        continue;
+                    }
+                    buffer.writeByte((byte) impact);
+                    buffer.writeVInt(counts[impact]);
+                    int lastDoc = 0;
+                    for (int i = 0; i < counts[impact]; i++, upto++) {
+                        buffer.writeVInt(sorted[upto] - lastDoc);
+                        lastDoc = sorted[upto];
+                    }
+                }
+                out.writeString(term.utf8ToString());
+                out.writeVLong(buffer.getFilePointer());
+                buffer.writeTo(out);
+                buffer.reset();
+            }
+            CodecUtil.writeFooter(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @return the nearest impact of a score, impact {@link #LEVELS} stands for maxScore and
+     * every posting gets at least impact 1
+     */
+    static int quantize(float score, float maxScore) {
+        if (maxScore <= 0) {
+            return 1;
+        }
+        int impact = Math.round(score / maxScore * LEVELS);
+        return Math.max(1, Math.min(LEVELS, impact));
+    }
+
+    /**
+     * Reads the impact-ordered postings of a term.
+     * @param term the term text
+     * @return the postings, or null if the term does not occur
+     * @throws IOException
+     */
+    public ImpactPostings postings(String term) throws IOException {
+        Long pointer = termPointers.get(term);
+        if (pointer == null) {
+            return null;
+        }
+        IndexInput input = in.clone();
+        input.seek(pointer);
+        int segments = input.readVInt();
+        byte[] impacts = new byte[segments];
+        int[] ends = new int[segments];
+        int[] docs = new int[0];
+        int upto = 0;
+        for (int s = 0; s < segments; s++) {
+            impacts[s] = input.readByte();
+            int count = input.readVInt();
+            docs = ArrayUtil.grow(docs, upto + count);
+            int doc = 0;
+            for (int i = 0; i < count; i++) {
+                doc += input.readVInt();
+                docs[upto++] = doc;
+            }
+            ends[s] = upto;
+        }
+        return new ImpactPostings(impacts, ends, docs);
+    }
+
+    /**
+     * @return the similarity the impacts were computed with
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    public int getMaxDoc() {
+        return maxDoc;
+    }
+
+    /**
+     * @return the score represented by impact {@link #LEVELS}
+     */
+    public float getMaxScore() {
+        return maxScore;
+    }
+
+    /**
+     * @return the score of one impact level, the inverse of {@link #quantize}
+     */
+    public float getImpactScale() {
+        return maxScore / LEVELS;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Postings of one term as segments of equal impact, highest impact first.
+     */
+    public static class ImpactPostings {
+        /**
+         * impact of each segment
+         */
+        final byte[] impacts;
+        /**
+         * exclusive end of each segment in docs
+         */
+        final int[] ends;
+        /**
+         * doc ids, ascending within each segment
+         */
+        final int[] docs;
+
+        ImpactPostings(byte[] impacts, int[] ends, int[] docs) {
+            this.impacts = impacts;
+            this.ends = ends;
+            this.docs = docs;
+        }
+
+        int size() {
+            return ends.length == 0 ? 0 : ends[ends.length - 1];
+        }
+    }
+
+    /**
+     * Scores all postings of a term across the leaves of a reader with the searcher's similarity.
+     * After {@link #score}, the first size entries hold the global doc ids in increasing order
+     * with their scores.
+     */
+    static class PostingsScorer {
+        /**
+         * postings scored per call, like the blocks of the postings format
+         */
+        private static final int BLOCK_SIZE = 128;
+        private final IndexSearcher searcher;
+        private final Similarity similarity;
+        private final String field;
+        private final CollectionStatistics collectionStats;
+        private final List<LeafReaderContext> leaves;
+        private final TermsEnum[] leafTerms;
+        private PostingsEnum postings;
+        int size;
+        int[] docs = new int[16];
+        float[] scores = new float[16];
+        /**
+         * a block of postings of the current leaf, scored in one call by a {@link BulkSimScorer}
+         */
+        private final int[] blockDocs = new int[BLOCK_SIZE];
+        private final float[] blockFreqs = new float[BLOCK_SIZE];
+        private final float[] blockScores = new float[BLOCK_SIZE];
+
+        PostingsScorer(IndexSearcher searcher, String field) throws IOException {
+            this.searcher = searcher;
+            this.similarity = searcher.getSimilarity(true);
+            this.field = field;
+            this.collectionStats = searcher.collectionStatistics(field);
+            this.leaves = searcher.getIndexReader().leaves();
+            this.leafTerms = new TermsEnum[leaves.size()];
+            for (int i = 0; i < leaves.size(); i++) {
+                Terms terms = leaves.get(i).reader().terms(field);
+                leafTerms[i] = terms == null ? TermsEnum.EMPTY : terms.iterator();
+            }
+        }
+
+        /**
+         * @return the statistics of a term in the whole index, which its weight is computed from
+         */
+        TermStatistics termStatistics(BytesRef bytes) throws IOException {
+            Term term = new Term(field, BytesRef.deepCopyOf(bytes));
+            return searcher.termStatistics(term, TermContext.build(searcher.getTopReaderContext(), term));
+        }
+
+        /**
+         * @return the scorer of a term on one leaf; every posting scored through it gets exactly
+         * the score {@link #score} computes for it
+         */
+        Similarity.SimScorer simScorer(TermStatistics termStats, LeafReaderContext leaf) throws IOException {
+            Similarity.SimWeight weight = similarity.computeWeight(collectionStats, termStats);
+            weight.normalize(1f, 1f);
+            return similarity.simScorer(weight, leaf);
+        }
+
+        void score(BytesRef bytes) throws IOException {
+            Term term = new Term(field, BytesRef.deepCopyOf(bytes));
+            TermStatistics termStats = termStatistics(term.bytes());
+            size = 0;
+            for (int i = 0; i < leaves.size(); i++) {
+                if (!leafTerms[i].seekExact(term.bytes())) {
+                    continue;
+                }
+                LeafReaderContext leaf = leaves.get(i);
+                Similarity.SimScorer simScorer = simScorer(termStats, leaf);
+                postings = leafTerms[i].postings(postings, PostingsEnum.FREQS);
+                int n = 0;
+                int doc;
+                while ((doc = postings.nextDoc()) != PostingsEnum.NO_MORE_DOCS) {
+                    blockDocs[n] = doc;
+                    blockFreqs[n] = postings.freq();
+                    if (++n == BLOCK_SIZE) {
+                        scoreBlock(simScorer, leaf.docBase, n);
+                        n = 0;
+                    }
+                }
+                scoreBlock(simScorer, leaf.docBase, n);
+            }
+        }
+
+        /**
+         * Scores the first n postings of the block and appends them with global doc ids
+         */
+        private void scoreBlock(Similarity.SimScorer simScorer, int docBase, int n) {
+            if (size + n > docs.length) {
+                docs = ArrayUtil.grow(docs, size + n);
+                scores = ArrayUtil.grow(scores, size + n);
+            }
+            if (simScorer instanceof BulkSimScorer) {
+                ((BulkSimScorer) simScorer).score(blockDocs, blockFreqs, blockScores, n);
+            } else {
+                for (int j = 0; j < n; j++) {
+                    blockScores[j] = simScorer.score(blockDocs[j], blockFreqs[j]);
+                }
+            }
+            for (int j = 0; j < n; j++) {
+                docs[size + j] = docBase + blockDocs[j];
+            }
+            System.arraycopy(blockScores, 0, scores, size, n);
+            size += n;
+        }
+    }
+}
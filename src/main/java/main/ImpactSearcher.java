@@ -0,0 +1,218 @@
+package main;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.util.PriorityQueue;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Score-at-a-time query processing over an {@link ImpactIndex}: the impact segments
+ * of all query terms are processed highest impact first, adding integer impacts
+ * into per-document accumulators, and processing stops once the postings budget
+ * is used up (anytime early termination).
+ * Not thread-safe, use one instance per thread.
+ */
+public class ImpactSearcher {
+    private final ImpactIndex index;
+    private final int[] accumulators;
+    private int[] touched = new int[1024];
+
+    public ImpactSearcher(ImpactIndex index) {
+        this.index = index;
+        this.accumulators = new int[index.getMaxDoc()];
+    }
+
+    /**
+     * Searches the impact index for the terms of a query
+     * @param query a parsed bag-of-words query
+     * @param n the number of hits to return
+     * @param budget the maximum number of postings to process, 0 processes all of them
+     * @return the top n documents, scores are impact sums scaled back to similarity scores
+     * @throws IOException
+     */
+    public TopDocs search(Query query, int n, long budget) throws IOException {
+        List<Term> terms = new ArrayList<>();
+        Main.collectTerms(query, terms);
+
+        List<Segment> segments = new ArrayList<>();
+        for (Term term : terms) {
+            if (!term.field().equals(index.getField())) {
+                continue;
+            }
+            ImpactIndex.ImpactPostings postings = index.postings(term.text());
+            if (postings == null) {
+                continue;
+            }
+            int start = 0;
+            for (int s = 0; s < postings.impacts.length; s++) {
+                segments.add(new Segment(postings, start, postings.ends[s], postings.impacts[s] & 0xFF));
+                start = postings.ends[s];
+            }
+        }
+        segments.sort(Comparator.comparingInt((Segment segment) -> segment.impact).reversed());
+
+        int numTouched = 0;
+        long processed = 0;
+        for (Segment segment : segments) {
+            if (budget > 0 && processed >= budget) {
+                break;
+            }
+            int[] docs = segment.postings.docs;
+            int end = budget > 0 ? (int) Math.min(segment.end, segment.start + budget - processed) : segment.end;
+            for (int i = segment.start; i < end; i++) {
+                int doc = docs[i];
+                if (accumulators[doc] == 0) {
+                    if (numTouched == touched.length) {
+                        touched = Arrays.copyOf(touched, numTouched * 2);
+                    }
+                    touched[numTouched++] = doc;
+                }
+                accumulators[doc] += segment.impact;
+            }
+            processed += end - segment.start;
+        }
+
+        ScoreDocQueue queue = new ScoreDocQueue(Math.max(1, Math.min(n, numTouched)));
+        for (int i = 0; i < numTouched; i++) {
+            int doc = touched[i];
+            queue.insertWithOverflow(new ScoreDoc(doc, accumulators[doc]));
+            accumulators[doc] = 0;
+        }
+        ScoreDoc[] hits = new ScoreDoc[Math.min(n, queue.size())];
+        float scale = index.getImpactScale();
+        for (int i = hits.length - 1; i >= 0; i--) {
+            hits[i] = queue.pop();
+            hits[i].score *= scale;
+        }
+        float maxScore = hits.length == 0 ? Float.NaN : hits[0].score;
+        return new TopDocs(numTouched, hits, maxScore);
+    }
+
+    /**
+     * Runs all topics with exact scoring and on the impact index, writes the impact run
+     * and prints latency, overlap with the exact top hits and MAP if qrels are configured.
+     * @param topics the topics to run
+     * @param analyzer the analyzer used for the query parser
+     * @param searcher the searcher scoring exactly with the similarity the impact index was built for
+     * @param index the impact index
+     * @param budget postings budget per query, 0 for exhaustive impact scoring
+     * @param runName the suffix of the result file and run tag
+     * @throws IOException
+     * @throws ParseException
+     */
+    static void compareWithExact(TreeMap<String, String> topics, Analyzer analyzer, IndexSearcher searcher,
+                                 ImpactIndex index, long budget, String runName) throws IOException, ParseException {
+        TrecEvaluation evaluation = TrecEvaluation.fromProperties();
+        ImpactSearcher impactSearcher = new ImpactSearcher(index);
+        File file = new File("resultsFile" + runName);
+        file.delete();
+
+        long exactNanos = 0, impactNanos = 0;
+        double exactAP = 0, impactAP = 0, overlap = 0;
+        for (String key : topics.keySet()) {
+            Query q = new QueryParser("contents", analyzer).parse(topics.get(key));
+
+            long start = System.nanoTime();
+            TopDocs exact = searcher.search(q, Main.hitsPerPage);
+            exactNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            TopDocs impact = impactSearcher.search(q, Main.hitsPerPage, budget);
+            impactNanos += System.nanoTime() - start;
+
+            Set<Integer> exactDocs = new HashSet<>();
+            for (ScoreDoc hit : exact.scoreDocs) {
+                exactDocs.add(hit.doc);
+            }
+            int common = 0;
+            for (ScoreDoc hit : impact.scoreDocs) {
+                if (exactDocs.contains(hit.doc)) {
+                    common++;
+                }
+            }
+            overlap += exactDocs.isEmpty() ? 1 : common / (double) exactDocs.size();
+
+            String[] impactDocnos = docnos(searcher, impact);
+            if (evaluation != null) {
+                exactAP += evaluation.averagePrecision(key, docnos(searcher, exact));
+                impactAP += evaluation.averagePrecision(key, impactDocnos);
+            }
+            StringBuilder run = new StringBuilder();
+            for (int i = 0; i < impactDocnos.length; i++) {
+                run.append(key).append(" Q0 ").append(impactDocnos[i]).append(' ').append(i + 1).append(' ')
+                        .append(impact.scoreDocs[i].score).append(" grp2-").append(runName).append('\n');
+            }
+            FileUtils.writeStringToFile(file, run.toString(), Charset.defaultCharset(), true);
+        }
+
+        int n = Math.max(1, topics.size());
+        System.out.println("Impact index (" + index.getDescription() + "), budget "
+                + (budget > 0 ? budget + " postings" : "exhaustive") + ", " + topics.size() + " topics");
+        System.out.printf("  exact:  %.3f ms/query%n", exactNanos / 1e6 / n);
+        System.out.printf("  impact: %.3f ms/query (%.2fx)%n", impactNanos / 1e6 / n,
+                exactNanos / (double) Math.max(1, impactNanos));
+        System.out.printf("  overlap@%d with exact: %.4f%n", Main.hitsPerPage, overlap / n);
+        if (evaluation != null) {
+            System.out.printf("  MAP exact %.4f, impact %.4f%n", exactAP / n, impactAP / n);
+        }
+    }
+
+    private static String[] docnos(IndexSearcher searcher, TopDocs docs) throws IOException {
+        String[] docnos = new String[docs.scoreDocs.length];
+        for (int i = 0; i < docnos.length; i++) {
+            docnos[i] = Main.docno(searcher.getIndexReader(), docs.scoreDocs[i].doc);
+        }
+        return docnos;
+    }
+
+    /**
+     * A run of postings of one term sharing the same impact.
+     */
+    private static class Segment {
+        final ImpactIndex.ImpactPostings postings;
+        final int start;
+        final int end;
+        final int impact;
+
+        Segment(ImpactIndex.ImpactPostings postings, int start, int end, int impact) {
+            this.postings = postings;
+            this.start = start;
+            this.end = end;
+            this.impact = impact;
+        }
+    }
+
+    /**
+     * Min-heap on score, ties broken towards the smaller doc id like Lucene's hit queue.
+     */
+    private static class ScoreDocQueue extends PriorityQueue<ScoreDoc> {
+        ScoreDocQueue(int size) {
+            super(size);
+        }
+
+        @Override
+        protected boolean lessThan(ScoreDoc a, ScoreDoc b) {
+            if (a.score == b.score) {
+                return a.doc > b.doc;
+            }
+            return a.score < b.score;
+        }
+    }
+}
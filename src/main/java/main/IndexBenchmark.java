@@ -0,0 +1,161 @@
+package main;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.store.FSDirectory;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * End-to-end benchmark on a collection such as the one of {@link CorpusGenerator}: parsing with
+ * {@link TrecDocIterator} alone, a full index build with the configured profile and backend, and a
+ * run of the topics. Prints docs/s, MB/s and the peak heap of each phase and the index size.
+ * The peak heap is the highest occupancy of the heap pools during the phase, garbage included,
+ * so it depends on the collector and -Xmx; compare it between runs with the same JVM flags.
+ */
+public class IndexBenchmark {
+
+    /**
+     * Runs the three phases and prints one line each
+     * @param docsDir the collection
+     * @param topicsFile the topics of the search phase
+     * @param indexDir scratch directory, an index there is replaced
+     * @param analyzer the analyzer to be used to preprocess the data
+     * @param bm25 the similarity function to be used
+     * @throws IOException
+     * @throws ParseException
+     */
+    static void run(File docsDir, File topicsFile, File indexDir, Analyzer analyzer, Similarity bm25)
+            throws IOException, ParseException {
+        long bytes = collectionBytes(docsDir);
+        System.out.printf("Collection %s: %.1f MB%n", docsDir, bytes / 1e6);
+        System.out.println("phase       docs    time ms     docs/s     MB/s  peak heap MB");
+
+        resetPeakHeap();
+        long start = System.nanoTime();
+        long parsed = parse(docsDir);
+        report("parse", parsed, System.nanoTime() - start, bytes);
+
+        resetPeakHeap();
+        start = System.nanoTime();
+        int indexed;
+        long indexBytes = 0;
+        try (FSDirectory dir = FSDirectory.open(indexDir.toPath())) {
+            Main.deleteIndexFiles(dir);
+            indexed = Main.buildIndex(dir, docsDir, Main.getProperty("indexDirectory", "fs").equals("ram"), analyzer, bm25);
+            report("index", indexed, System.nanoTime() - start, bytes);
+            for (String file : SegmentInfos.readLatestCommit(dir).files(true)) {
+                indexBytes += dir.fileLength(file);
+            }
+        }
+        System.out.printf("index size %.1f MB, %.0f bytes/doc, %.2f x the collection%n",
+                indexBytes / 1e6, indexBytes / (double) Math.max(1, indexed), indexBytes / (double) Math.max(1, bytes));
+        Metrics.gauge("bench.indexBytes", indexBytes);
+
+        List<Query> queries = new ArrayList<>();
+        for (String querystr : Main.setUpTopicMap(topicsFile.getPath()).values()) {
+            queries.add(new QueryParser("contents", analyzer).parse(querystr));
+        }
+        try (DirectoryReader reader = DirectoryReader.open(FSDirectory.open(indexDir.toPath()))) {
+            IndexSearcher searcher = new SimilaritySearcherFactory(bm25).newSearcher(reader, null);
+            // the first round pays for the per-segment statistics and the JIT, only the second is reported
+            LatencyHistogram latencies = null;
+            resetPeakHeap();
+            for (int round = 0; round < 2; round++) {
+                latencies = new LatencyHistogram();
+                for (Query query : queries) {
+                    start = System.nanoTime();
+                    for (ScoreDoc hit : searcher.search(query, Main.hitsPerPage).scoreDocs) {
+                        Main.docno(reader, hit.doc);
+                    }
+                    latencies.record(System.nanoTime() - start);
+                }
+            }
+            System.out.printf("search %d topics: %.3f ms/query, p50 %.3f ms, p99 %.3f ms, peak heap %.1f MB%n",
+                    queries.size(), latencies.getMean() / 1e6, latencies.getQuantile(0.5) / 1e6,
+                    latencies.getQuantile(0.99) / 1e6, peakHeap() / 1e6);
+            Metrics.gauge("bench.searchMsPerQuery", latencies.getMean() / 1e6);
+        }
+    }
+
+    /**
+     * Reads every document of the collection without indexing it
+     * @return the number of documents
+     */
+    private static long parse(File file) throws IOException {
+        long docs = 0;
+        if (file.isDirectory()) {
+            String[] files = file.list();
+            if (files != null) {
+                for (String name : files) {
+                    docs += parse(new File(file, name));
+                }
+            }
+        } else if (file.canRead()) {
+            try (TrecDocIterator iterator = new TrecDocIterator(file)) {
+                while (iterator.hasNext()) {
+                    Document doc = iterator.next();
+                    if (doc != null && doc.getField("contents") != null) {
+                        docs++;
+                    }
+                }
+            }
+        }
+        return docs;
+    }
+
+    private static long collectionBytes(File file) {
+        long bytes = 0;
+        File[] files = file.listFiles();
+        if (files == null) {
+            return file.length();
+        }
+        for (File child : files) {
+            bytes += collectionBytes(child);
+        }
+        return bytes;
+    }
+
+    private static void report(String phase, long docs, long nanos, long bytes) {
+        double seconds = nanos / 1e9;
+        System.out.printf("%-6s %9d %10d %10.0f %8.2f %13.1f%n", phase, docs, nanos / 1000000,
+                docs / seconds, bytes / 1e6 / seconds, peakHeap() / 1e6);
+        Metrics.gauge("bench." + phase + ".docsPerSec", docs / seconds);
+        Metrics.gauge("bench." + phase + ".peakHeapBytes", peakHeap());
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /**
+     * @return the sum of the peak usage of the heap pools since the last {@link #resetPeakHeap}
+     */
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+}
@@ -0,0 +1,314 @@
+package main;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.CodecReader;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.Fields;
+import org.apache.lucene.index.FilterLeafReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.SlowCodecReaderWrapper;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermStatistics;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Static index pruning: copies an index without the postings of one field that are unlikely
+ * to reach the top results. Every posting is scored with the given similarity, then
+ * <ul>
+ *   <li>term-centric (Carmel et al.): a term keeps the postings scoring at least epsilon times
+ *       the k-th highest score of the term, all of them if it occurs in at most k documents</li>
+ *   <li>document-centric (B&uuml;ttcher and Clarke): a document keeps the postings of its
+ *       ratio highest scoring terms, read from its term vector</li>
+ * </ul>
+ * Stored fields, norms, doc values and term vectors are copied unchanged, so document lengths
+ * stay the same. Document frequencies are those of the pruned postings, which raises the idf
+ * of pruned terms slightly.
+ */
+public class IndexPruner {
+    private final IndexSearcher searcher;
+    private final String field;
+    private final String method;
+    private final int k;
+    private final float epsilon;
+    private final float ratio;
+    private final ImpactIndex.PostingsScorer scorer;
+    private final BytesRef scoredTerm = new BytesRef();
+    private float termThreshold;
+    private float[] docCutoffs;
+    private long postingsBefore;
+    private long postingsAfter;
+
+    /**
+     * @param reader the index to prune
+     * @param similarity the similarity the postings are scored with, null for Lucene's default
+     * @param field the field whose postings are pruned
+     * @param method "term" or "document"
+     * @param k term-centric: the rank whose score sets the cutoff of a term
+     * @param epsilon term-centric: fraction of the k-th score a posting needs
+     * @param ratio document-centric: fraction of the terms of a document that keep their postings
+     * @throws IOException
+     */
+    public IndexPruner(IndexReader reader, Similarity similarity, String field, String method,
+                       int k, float epsilon, float ratio) throws IOException {
+        if (!method.equals("term") && !method.equals("document")) {
+            throw new IllegalArgumentException("unknown pruning method: " + method);
+        }
+        this.searcher = new SimilaritySearcherFactory(similarity).newSearcher(reader, null);
+        this.field = field;
+        this.method = method;
+        this.k = k;
+        this.epsilon = epsilon;
+        this.ratio = ratio;
+        this.scorer = new ImpactIndex.PostingsScorer(searcher, field);
+    }
+
+    /**
+     * Writes the pruned copy of the index
+     * @param target where the pruned index is written, replacing any index there
+     * @param config the writer configuration, its open mode is set to create
+     * @throws IOException
+     */
+    public void prune(Directory target, IndexWriterConfig config) throws IOException {
+        if (method.equals("document")) {
+            docCutoffs = documentCutoffs();
+        }
+        config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+        List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+        CodecReader[] pruned = new CodecReader[leaves.size()];
+        for (int i = 0; i < pruned.length; i++) {
+            pruned[i] = SlowCodecReaderWrapper.wrap(new PruningReader(leaves.get(i)));
+        }
+        try (IndexWriter writer = new IndexWriter(target, config)) {
+            writer.addIndexes(pruned);
+            writer.commit();
+        }
+    }
+
+    /**
+     * @return the number of postings of the field in the original index
+     */
+    public long getPostingsBefore() {
+        return postingsBefore;
+    }
+
+    /**
+     * @return the number of postings of the field in the pruned index
+     */
+    public long getPostingsAfter() {
+        return postingsAfter;
+    }
+
+    /**
+     * Scores all postings of a term unless it was the last one scored; the merge asks each
+     * leaf for the postings of a term in turn, so every term is scored once
+     */
+    private void scoreTerm(BytesRef term) throws IOException {
+        if (term.bytesEquals(scoredTerm) && scoredTerm.length > 0) {
+            return;
+        }
+        scoredTerm.bytes = ArrayUtil.grow(scoredTerm.bytes, term.length);
+        System.arraycopy(term.bytes, term.offset, scoredTerm.bytes, 0, term.length);
+        scoredTerm.length = term.length;
+        scorer.score(term);
+        termThreshold = Float.NEGATIVE_INFINITY;
+        if (method.equals("term") && scorer.size > k) {
+            float[] sorted = Arrays.copyOf(scorer.scores, scorer.size);
+            Arrays.sort(sorted);
+            termThreshold = epsilon * sorted[scorer.size - k];
+        }
+    }
+
+    /**
+     * @return for each document the lowest score of a posting it keeps
+     */
+    private float[] documentCutoffs() throws IOException {
+        IndexReader reader = searcher.getIndexReader();
+        // the idf inputs of each term are looked up once; weights and scorers live for one leaf
+        Map<BytesRef, TermStatistics> termStats = new HashMap<>();
+        float[] cutoffs = new float[reader.maxDoc()];
+        float[] scores = new float[16];
+        for (LeafReaderContext leaf : reader.leaves()) {
+            FieldInfo fieldInfo = leaf.reader().getFieldInfos().fieldInfo(field);
+            if (fieldInfo != null && !fieldInfo.hasVectors()) {
+                throw new IllegalStateException("document-centric pruning needs term vectors on field " + field);
+            }
+            Map<BytesRef, Similarity.SimScorer> simScorers = new HashMap<>();
+            for (int doc = 0; doc < leaf.reader().maxDoc(); doc++) {
+                Terms vector = leaf.reader().getTermVector(doc, field);
+                if (vector == null) {
+                    continue;
+                }
+                int numTerms = 0;
+                TermsEnum termsEnum = vector.iterator();
+                BytesRef term;
+                while ((term = termsEnum.next()) != null) {
+                    Similarity.SimScorer simScorer = simScorers.get(term);
+                    if (simScorer == null) {
+                        BytesRef key = BytesRef.deepCopyOf(term);
+                        TermStatistics stats = termStats.get(key);
+                        if (stats == null) {
+                            stats = scorer.termStatistics(key);
+                            termStats.put(key, stats);
+                        }
+                        simScorer = scorer.simScorer(stats, leaf);
+                        simScorers.put(key, simScorer);
+                    }
+                    scores = ArrayUtil.grow(scores, numTerms + 1);
+                    // same scorer and freq as the postings get, so the cutoff compares exactly
+                    scores[numTerms++] = simScorer.score(doc, (int) termsEnum.totalTermFreq());
+                }
+                Arrays.sort(scores, 0, numTerms);
+                int keep = Math.max(1, (int) Math.ceil(ratio * numTerms));
+                cutoffs[leaf.docBase + doc] = scores[numTerms - keep];
+            }
+        }
+        return cutoffs;
+    }
+
+    /**
+     * Leaf of the original index whose postings of the field leave out the pruned ones.
+     */
+    private class PruningReader extends FilterLeafReader {
+        private final int docBase;
+
+        PruningReader(LeafReaderContext leaf) {
+            super(leaf.reader());
+            this.docBase = leaf.docBase;
+        }
+
+        @Override
+        public Fields fields() throws IOException {
+            return new FilterFields(super.fields()) {
+                @Override
+                public Terms terms(String name) throws IOException {
+                    Terms terms = super.terms(name);
+                    if (terms == null || !name.equals(field)) {
+                        return terms;
+                    }
+                    return new FilterTerms(terms) {
+                        @Override
+                        public TermsEnum iterator() throws IOException {
+                            return new FilterTermsEnum(in.iterator()) {
+                                @Override
+                                public PostingsEnum postings(PostingsEnum reuse, int flags) throws IOException {
+                                    scoreTerm(term());
+                                    return new PruningPostingsEnum(in.postings(null, flags), docBase);
+                                }
+                            };
+                        }
+                    };
+                }
+            };
+        }
+
+        @Override
+        public Object getCoreCacheKey() {
+            return in.getCoreCacheKey();
+        }
+
+        @Override
+        public Object getCombinedCoreAndDeletesKey() {
+            return in.getCombinedCoreAndDeletesKey();
+        }
+    }
+
+    /**
+     * Postings of the current term without the documents whose score is below the cutoff.
+     */
+    private class PruningPostingsEnum extends FilterLeafReader.FilterPostingsEnum {
+        private final int docBase;
+        private int upto;
+
+        PruningPostingsEnum(PostingsEnum in, int docBase) {
+            super(in);
+            this.docBase = docBase;
+            int start = Arrays.binarySearch(scorer.docs, 0, scorer.size, docBase);
+            this.upto = start < 0 ? -start - 1 : start;
+        }
+
+        @Override
+        public int nextDoc() throws IOException {
+            return keepNext(in.nextDoc());
+        }
+
+        @Override
+        public int advance(int target) throws IOException {
+            return keepNext(in.advance(target));
+        }
+
+        private int keepNext(int doc) throws IOException {
+            for (; doc != NO_MORE_DOCS; doc = in.nextDoc()) {
+                postingsBefore++;
+                int global = docBase + doc;
+                while (upto < scorer.size && scorer.docs[upto] < global) {
+                    upto++;
+                }
+                float cutoff = docCutoffs != null ? docCutoffs[global] : termThreshold;
+                if (upto < scorer.size && scorer.docs[upto] == global && scorer.scores[upto] >= cutoff) {
+                    postingsAfter++;
+                    return doc;
+                }
+            }
+            return doc;
+        }
+    }
+
+    /**
+     * Runs all topics on the full and the pruned index, writes the run of the pruned index and
+     * prints size, latency and MAP of both
+     * @param topics the topics to run
+     * @param analyzer the analyzer used for the query parser
+     * @param full the original index
+     * @param pruned the pruned index
+     * @param similarity the similarity both indexes are searched with
+     * @param runTag run tag of the pruned run, written to resultsFile&lt;runTag&gt;
+     * @throws IOException
+     * @throws ParseException
+     */
+    static void compare(TreeMap<String, String> topics, Analyzer analyzer, Directory full, Directory pruned,
+                        Similarity similarity, String runTag) throws IOException, ParseException {
+        TrecEvaluation evaluation = TrecEvaluation.fromProperties();
+        Map<String, Query> queries = new TreeMap<>();
+        for (Map.Entry<String, String> topic : topics.entrySet()) {
+            queries.put(topic.getKey(), new QueryParser("contents", analyzer).parse(topic.getValue()));
+        }
+        System.out.println("index          KB   ms/query      MAP");
+        report("full", full, queries, similarity, evaluation, null);
+        report("pruned", pruned, queries, similarity, evaluation, runTag);
+    }
+
+    private static void report(String label, Directory dir, Map<String, Query> queries, Similarity similarity,
+                               TrecEvaluation evaluation, String runTag) throws IOException {
+        long bytes = 0;
+        for (String file : SegmentInfos.readLatestCommit(dir).files(true)) {
+            bytes += dir.fileLength(file);
+        }
+        try (DirectoryReader reader = DirectoryReader.open(dir)) {
+            IndexSearcher searcher = new SimilaritySearcherFactory(similarity).newSearcher(reader, null);
+            RunMeasurement measured = RunMeasurement.measure(queries, reader, searcher::search, evaluation, runTag);
+            System.out.printf("%-8s %8d %10.3f %8s%n", label, bytes / 1024, measured.msPerQuery(), measured.map());
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package main;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Weight;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * IndexSearcher recording weight creation and the per-leaf scoring loop in {@link Metrics}.
+ * The scoring time includes creating the scorers, and with them the similarity's simScorer.
+ * Term statistics come from the {@link TermStatisticsCache} of the reader.
+ */
+public class InstrumentedIndexSearcher extends IndexSearcher {
+    private final TermStatisticsCache termStatistics;
+
+    public InstrumentedIndexSearcher(IndexReader reader) {
+        super(reader);
+        this.termStatistics = TermStatisticsCache.of(reader);
+    }
+
+    @Override
+    public Weight createNormalizedWeight(Query query, boolean needsScores) throws IOException {
+        long start = Metrics.start();
+        Weight weight = super.createNormalizedWeight(termStatistics.withTermContexts(query), needsScores);
+        Metrics.record("query.weight", start);
+        return weight;
+    }
+
+    @Override
+    protected void search(List<LeafReaderContext> leaves, Weight weight, Collector collector) throws IOException {
+        long start = Metrics.start();
+        super.search(leaves, weight, collector);
+        Metrics.record("query.score", start);
+    }
+}
@@ -0,0 +1,136 @@
+package main;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.similarities.Similarity;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load generator for sizing hardware: replays queries against one index with each similarity
+ * from {@code concurrency} threads and reports throughput and latency quantiles.
+ * <p>
+ * Closed loop (rate 0) sends the next query as soon as a thread is free. Open loop sends query i
+ * at start + i / rate whether or not earlier queries have finished, and measures its latency from
+ * that intended send time, so the time a query waits for a busy thread is part of its latency
+ * instead of silently lowering the offered load.
+ */
+public class LoadTester {
+    private final IndexReader reader;
+    private final List<Query> queries;
+    private final int concurrency;
+    private final double rate;
+    private final int numQueries;
+
+    /**
+     * @param reader the index
+     * @param queries the queries, replayed round robin
+     * @param concurrency the number of threads sending queries
+     * @param rate queries per second of the open loop, 0 for a closed loop
+     * @param numQueries the number of queries sent per similarity
+     * @throws IllegalArgumentException if there are no queries to replay
+     */
+    public LoadTester(IndexReader reader, List<Query> queries, int concurrency, double rate, int numQueries) {
+        if (queries.isEmpty()) {
+            throw new IllegalArgumentException("no queries to replay, check queryLog or topics");
+        }
+        this.reader = reader;
+        this.queries = queries;
+        this.concurrency = concurrency;
+        this.rate = rate;
+        this.numQueries = numQueries;
+    }
+
+    /**
+     * Runs the load against each similarity after one warm-up pass over the queries and prints one line each
+     * @param similarities the similarities to compare, by name
+     * @throws IOException
+     */
+    public void run(Map<String, Similarity> similarities) throws IOException {
+        System.out.printf("Load test: %d queries, %d threads, %s%n", numQueries, concurrency,
+                rate > 0 ? String.format("open loop at %.0f queries/s", rate) : "closed loop");
+        System.out.println("similarity        QPS   p50 ms   p95 ms   p99 ms  p999 ms   max ms");
+        for (Map.Entry<String, Similarity> entry : similarities.entrySet()) {
+            IndexSearcher searcher = new SimilaritySearcherFactory(entry.getValue()).newSearcher(reader, null);
+            for (Query query : queries) {
+                search(searcher, query);
+            }
+            LatencyHistogram latencies = new LatencyHistogram();
+            long nanos = load(searcher, latencies);
+            double qps = latencies.getCount() / (nanos / 1e9);
+            System.out.printf("%-12s %8.1f %8.3f %8.3f %8.3f %8.3f %8.3f%n", entry.getKey(), qps,
+                    latencies.getQuantile(0.5) / 1e6, latencies.getQuantile(0.95) / 1e6,
+                    latencies.getQuantile(0.99) / 1e6, latencies.getQuantile(0.999) / 1e6, latencies.getMax() / 1e6);
+            Metrics.gauge("load." + entry.getKey() + ".qps", qps);
+            Metrics.gauge("load." + entry.getKey() + ".p99ms", latencies.getQuantile(0.99) / 1e6);
+        }
+    }
+
+    /**
+     * Sends numQueries queries; each thread takes the next query number until all are taken
+     * @return the wall time of the whole run in nanoseconds
+     */
+    private long load(IndexSearcher searcher, LatencyHistogram latencies) throws IOException {
+        ExecutorService threads = Executors.newFixedThreadPool(concurrency);
+        AtomicLong next = new AtomicLong();
+        long intervalNanos = rate > 0 ? (long) (1e9 / rate) : 0;
+        long start = System.nanoTime();
+        try {
+            Future<?>[] senders = new Future<?>[concurrency];
+            for (int t = 0; t < concurrency; t++) {
+                senders[t] = threads.submit(() -> {
+                    long i;
+                    while ((i = next.getAndIncrement()) < numQueries) {
+                        long sendAt = System.nanoTime();
+                        if (intervalNanos > 0) {
+                            long intended = start + i * intervalNanos;
+                            while (sendAt < intended) {
+                                LockSupport.parkNanos(intended - sendAt);
+                                sendAt = System.nanoTime();
+                            }
+                            sendAt = intended;
+                        }
+                        search(searcher, queries.get((int) (i % queries.size())));
+                        latencies.record(System.nanoTime() - sendAt);
+                    }
+                    return null;
+                });
+            }
+            for (Future<?> sender : senders) {
+                sender.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted during the load test", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Load test query failed", e.getCause());
+        } finally {
+            threads.shutdownNow();
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * One query as the batch mode runs it, including the docno lookup of every hit
+     */
+    private void search(IndexSearcher searcher, Query query) {
+        try {
+            for (ScoreDoc hit : searcher.search(query, Main.hitsPerPage).scoreDocs) {
+                Main.docno(reader, hit.doc);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
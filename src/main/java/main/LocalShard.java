@@ -0,0 +1,118 @@
+package main;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.ReaderManager;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.CollectionStatistics;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermStatistics;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.store.Directory;
+
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * A shard opened in this process.
+ */
+public class LocalShard implements Shard {
+    private final ReaderManager readers;
+    private final Analyzer analyzer;
+    private final Similarity similarity;
+
+    /**
+     * @param dir the index of the shard
+     * @param analyzer the analyzer queries are parsed with
+     * @param similarity the similarity to score with, null for Lucene's default
+     * @throws IOException
+     */
+    public LocalShard(Directory dir, Analyzer analyzer, Similarity similarity) throws IOException {
+        this.readers = new ReaderManager(dir);
+        this.analyzer = analyzer;
+        this.similarity = similarity;
+    }
+
+    private IndexSearcher newSearcher(IndexSearcher searcher) {
+        if (similarity != null) {
+            searcher.setSimilarity(similarity);
+        }
+        return searcher;
+    }
+
+    @Override
+    public GlobalStatistics statistics(String field, Collection<Term> terms) throws IOException {
+        DirectoryReader reader = readers.acquire();
+        try {
+            return GlobalStatistics.collect(newSearcher(new IndexSearcher(reader)), field, terms);
+        } finally {
+            readers.release(reader);
+        }
+    }
+
+    @Override
+    public TopDocs search(String querystr, GlobalStatistics global, int n) throws IOException, ParseException {
+        DirectoryReader reader = readers.acquire();
+        try {
+            IndexSearcher searcher = newSearcher(new ShardIndexSearcher(reader, global));
+            TopDocs docs = searcher.search(new QueryParser(global.getField(), analyzer).parse(querystr), n);
+            for (int i = 0; i < docs.scoreDocs.length; i++) {
+                ScoreDoc hit = docs.scoreDocs[i];
+                docs.scoreDocs[i] = new Hit(hit.doc, hit.score, Main.docno(reader, hit.doc));
+            }
+            return docs;
+        } finally {
+            readers.release(reader);
+        }
+    }
+
+    @Override
+    public boolean refresh() throws IOException {
+        DirectoryReader before = readers.acquire();
+        try {
+            readers.maybeRefreshBlocking();
+            DirectoryReader after = readers.acquire();
+            try {
+                return after != before;
+            } finally {
+                readers.release(after);
+            }
+        } finally {
+            readers.release(before);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        readers.close();
+    }
+
+    /**
+     * Searcher of one shard that hands the similarity statistics of the whole collection.
+     */
+    static class ShardIndexSearcher extends IndexSearcher {
+        private final GlobalStatistics global;
+
+        ShardIndexSearcher(IndexReader reader, GlobalStatistics global) {
+            super(reader);
+            this.global = global;
+        }
+
+        @Override
+        public TermStatistics termStatistics(Term term, TermContext context) throws IOException {
+            TermStatistics stats = term.field().equals(global.getField()) ? global.termStatistics(term.bytes()) : null;
+            return stats == null ? super.termStatistics(term, context) : stats;
+        }
+
+        @Override
+        public CollectionStatistics collectionStatistics(String field) throws IOException {
+            return field.equals(global.getField()) ? global.collectionStatistics() : super.collectionStatistics(field);
+        }
+    }
+}
@@ -1,27 +1,41 @@
 package main;
 
 import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.*;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopScoreDocCollector;
 import org.apache.lucene.search.similarities.Similarity;
 import org.apache.lucene.search.similarities.SimilarityBase;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NIOFSDirectory;
 import org.apache.lucene.store.RAMDirectory;
-import org.apache.commons.io.FileUtils;
+import org.apache.lucene.util.BytesRef;
 
 import java.io.*;
 import java.nio.charset.Charset;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Properties;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class Main {
     //path to the TREC library, take a small amount for testing purposes
@@ -30,36 +44,118 @@ public class Main {
     private static String indexPath;
     private static String setupIndex;
     private static String similarity;
+    private static Properties properties = new Properties();
     final static int hitsPerPage = 1000;
     final static boolean debugOutput = true;
 
     public static void main(String[] args) throws IOException, ParseException {
         loadProperties();
+        Metrics.setEnabled(getProperty("metrics", "false").equals("true"));
 
-        StandardAnalyzer analyzer = new StandardAnalyzer();
+        Analyzer analyzer = newAnalyzer();
         Similarity bm25 = getSimilarity();
 
+        //or write a synthetic TREC collection, optionally benchmarking parsing, indexing and search on it
+        if(getProperty("mode", "batch").equals("generateCorpus") || getProperty("mode", "batch").equals("indexBenchmark")) {
+            runSyntheticCorpus(analyzer, bm25, getProperty("mode", "batch").equals("indexBenchmark"));
+            return;
+        }
+        //or compare the storage backends for building and searching
+        if(getProperty("mode", "batch").equals("directoryBenchmark")) {
+            DirectoryBenchmark.run(new File(indexPath + "bench/"), new File(docsPath), setUpTopicMap(topicsPath),
+                    Integer.parseInt(getProperty("benchmarkRounds", "5")), analyzer, bm25);
+            return;
+        }
+        //or convert a binary run into a TREC text run
+        if(getProperty("mode", "batch").equals("convertRun")) {
+            convertRun(new File(getProperty("runFile", "resultsFile" + similarity + BinaryRunWriter.EXTENSION)));
+            return;
+        }
+        //alternatively partition the index into shards and search them together
+        if(getProperty("mode", "batch").equals("sharded")) {
+            runSharded(analyzer, bm25);
+            return;
+        }
         //1. creates the index, sets up to use BM25Similarity
         // and Standard Analyzer and indexes TREC files
         if(setupIndex.equals("true")) {
             setUpIndex(analyzer, bm25);
         }
+        //optionally precompute impact-ordered postings for the chosen similarity
+        if(getProperty("buildImpactIndex", "false").equals("true")) {
+            buildImpactIndex(bm25);
+        }
+        //or write a statically pruned copy of the index and compare it with the full one
+        if(getProperty("mode", "batch").equals("prune")) {
+            pruneIndex(analyzer, bm25);
+            return;
+        }
+        //alternatively keep the index open and answer queries as they come in
+        if(getProperty("mode", "batch").equals("daemon")) {
+            runSearchDaemon(analyzer, bm25);
+            return;
+        }
+        //or keep indexing new files from a drop directory while answering queries
+        if(getProperty("mode", "batch").equals("nrt")) {
+            runNearRealTime(analyzer, bm25);
+            return;
+        }
+        //or measure throughput and tail latency of each similarity under load
+        if(getProperty("mode", "batch").equals("loadTest")) {
+            runLoadTest(analyzer);
+            return;
+        }
+        //or replay a query log of any length without loading it first
+        if(getProperty("mode", "batch").equals("stream")) {
+            streamQueries(analyzer, bm25);
+            return;
+        }
         //2. parse the list of topics to be queried
         TreeMap<String, String> topics = setUpTopicMap(topicsPath);
         // 3. search for the topics in the index
-        //delete the results File for new run
-        new File("resultsFile" + similarity).delete();
         searchForTopicsInIndex(topics, analyzer, bm25);
+        //4. optionally compare score-at-a-time search on the impact index with exact scoring
+        if(getProperty("impactSearch", "false").equals("true")) {
+            searchImpactIndex(topics, analyzer, bm25);
+        }
+        //or rescore only the top hits of a cheap BM25 pass with an expensive similarity
+        if(getProperty("cascade", "false").equals("true")) {
+            runCascade(topics, analyzer);
+        }
+        //or fuse the runs of several similarities per topic
+        if(!getProperty("fusion", "none").equals("none")) {
+            runFusion(topics, analyzer);
+        }
+        //5. report where the time went
+        Metrics.printSummary(System.out);
+        String metricsFile = getProperty("metricsFile", null);
+        if(metricsFile != null && Metrics.isEnabled()) {
+            Metrics.dump(new File(metricsFile));
+        }
     }
 
     public static Similarity getSimilarity() {
+        return getSimilarity(similarity);
+    }
+
+    /**
+     * @param similarity "VA", "ORIGINAL" or anything else for Lucene's default
+     * @return the similarity of that name, null for Lucene's default
+     */
+    static Similarity getSimilarity(String similarity) {
         if(similarity.equals("VA")) {
-            return new BM25VASimilarity();
+            BM25VASimilarity va = new BM25VASimilarity();
+            long memoryMB = Long.parseLong(getProperty("vaMemoryMB", "0"));
+            if (memoryMB > 0) {
+                va.setMemoryBudget(memoryMB << 20, getProperty("vaPrecision", "float").equals("16bit"),
+                        new File(getProperty("vaSpillDir", System.getProperty("java.io.tmpdir"))).toPath());
+            }
+            return va;
         } else if(similarity.equals("ORIGINAL")) {
-            System.out.println("Use BM 25 Original Similarity");
+            System.err.println("Use BM 25 Original Similarity");
             return new BM25SimilarityOriginal();
         } else {
-            System.out.println("Use Lucene default Similarity");
+            System.err.println("Use Lucene default Similarity");
             return null;
         }
     }
@@ -75,22 +171,48 @@ public class Main {
      */
     static void searchForTopicsInIndex(TreeMap<String, String> topics, Analyzer analyzer, Similarity bm25) throws ParseException, IOException {
         //path to index is opened
-        Directory index = FSDirectory.open(new File(indexPath).toPath());
+        Directory index = openDirectory(new File(indexPath).toPath(), getProperty("searchDirectory", "fs"));
         IndexReader reader = DirectoryReader.open(index);
-        IndexSearcher searcher = new IndexSearcher(reader);
-        if(bm25 != null) {
-            searcher.setSimilarity(bm25);
-        }
+        IndexSearcher searcher = new SimilaritySearcherFactory(bm25, newWarmer(analyzer)).newSearcher(reader, null);
+        //optionally expand all queries with pseudo-relevance feedback first
+        Map<String, Query> expanded = expandTopics(topics, analyzer, searcher);
+        boolean proximity = getProperty("proximity", "false").equals("true");
+        int proximityDepth = Integer.parseInt(getProperty("proximityDepth", "100"));
+        float proximityWeight = Float.parseFloat(getProperty("proximityWeight", "1"));
+        int proximityWindow = Integer.parseInt(getProperty("proximityWindow", "5"));
+        String runTag = similarity + (expanded == null ? "" : "-rm3") + (proximity ? "-prox" : "");
+        //the run replaces the results File of earlier runs
+        RunWriter run = RunWriter.open("resultsFile" + runTag, getProperty("runFormat", "trec"), runTag);
+        //per-hit work reuses the parser, the docno doc values and the line buffers, so hits allocate nothing
+        QueryParser parser = new QueryParser("contents", analyzer);
+        DocnoLookup docnos = new DocnoLookup(reader);
+        TrecRunWriter echo = debugOutput ? new TrecRunWriter(System.out, runTag) : null;
         //create ordered list out of keys
+        long allocated = 0;
         for(String key : topics.keySet()) {
+            long allocationStart = Metrics.allocatedBytes();
             // create specific query
             String querystr = topics.get(key);
 
             // the "title" arg specifies the default field to use
             // when no field is explicitly specified in the query.
-            Query q = new QueryParser("contents", analyzer).parse(querystr);
+            long start = Metrics.start();
+            Query q = expanded != null ? expanded.get(key) : parser.parse(querystr);
+            Metrics.record("query.analyze", start);
             //execute query
-            TopDocs docs = searcher.search(q, hitsPerPage);
+            TopScoreDocCollector collector = TopScoreDocCollector.create(hitsPerPage);
+            searcher.search(q, collector);
+            start = Metrics.start();
+            TopDocs docs = collector.topDocs();
+            Metrics.record("query.collect", start);
+            //optionally rerank the top candidates by how close the query terms occur
+            if(proximity) {
+                List<Term> terms = new ArrayList<>();
+                collectTerms(parser.parse(querystr), terms);
+                docs = new ProximityRescorer("contents", terms, proximityWeight, proximityWindow, 1.2f)
+                        .rescore(searcher, docs, proximityDepth);
+            }
+            Metrics.count("query.totalHits", docs.totalHits);
             //number of hits
             ScoreDoc[] hits = docs.scoreDocs;
 
@@ -98,25 +220,456 @@ public class Main {
             if(debugOutput) {
                 System.out.println("Found " + hits.length + " hits for topic no. " + key + " - " + topics.get(key));
             }
+            long docnoNanos = 0, writeNanos = 0;
+            run.startTopic(key);
+            if(echo != null) {
+                echo.startTopic(key);
+            }
             for(int i=0;i<hits.length;++i) {
                 int docId = hits[i].doc;
                 float score = hits[i].score;
-                Document d = searcher.doc(docId);
-                String result = key + " Q0" + " " + d.get("docno") + " " + (i + 1) +  " " + score + " grp2-" + similarity;
-                if(debugOutput) {
-                    System.out.println(result);
+                start = Metrics.start();
+                BytesRef docno = docnos.get(docId);
+                docnoNanos += Metrics.start() - start;
+                if(echo != null) {
+                    echo.add(docno, score);
                 }
-                File file = new File("resultsFile" + similarity);
-                FileUtils.writeStringToFile(file, result + "\n", Charset.defaultCharset(), true);
+                start = Metrics.start();
+                run.add(docno, score);
+                writeNanos += Metrics.start() - start;
 
             }
+            if(echo != null) {
+                echo.flush();
+            }
+            Metrics.recordNanos("query.docno", docnoNanos);
+            Metrics.recordNanos("run.write", writeNanos);
+            allocated += Metrics.allocatedBytes() - allocationStart;
         }
+        Metrics.count("query.allocatedBytes", allocated);
+        Metrics.gauge("query.allocatedBytesPerQuery", allocated / (double) Math.max(1, topics.size()));
 
+        run.close();
         // reader can only be closed when there
         // is no need to access the documents any more.
         reader.close();
     }
 
+    /**
+     * Converts a binary run into a TREC text run of the same name without the .bin extension
+     * @param binary the run written with runFormat binary
+     * @throws IOException
+     */
+    static void convertRun(File binary) throws IOException {
+        String name = binary.getPath();
+        File text = new File(name.endsWith(BinaryRunWriter.EXTENSION)
+                ? name.substring(0, name.length() - BinaryRunWriter.EXTENSION.length()) : name + ".txt");
+        long start = System.nanoTime();
+        BinaryRunReader.toTrec(binary, text);
+        if(debugOutput) {
+            System.out.println("Converted " + binary + " (" + binary.length() + " bytes) to " + text
+                    + " (" + text.length() + " bytes) in " + (System.nanoTime() - start) / 1000000 + " ms");
+        }
+    }
+
+    /**
+     * Builds (if setupIndex is true) and searches an index split into numShards shards.
+     * The shards are opened in this process, or reached through shardAddresses if set
+     * @param analyzer the preprocessor used
+     * @param bm25 the similarity measure used
+     * @throws IOException
+     * @throws ParseException
+     */
+    static void runSharded(Analyzer analyzer, Similarity bm25) throws IOException, ParseException {
+        int numShards = Integer.parseInt(getProperty("numShards", "4"));
+        File shardsRoot = new File(indexPath + "shards/");
+        if(setupIndex.equals("true")) {
+            long start = System.nanoTime();
+            ShardedIndex.build(new File(docsPath), shardsRoot, numShards, analyzer, bm25);
+            Metrics.recordNanos("index.build", System.nanoTime() - start);
+        }
+        List<Shard> shards = new ArrayList<>();
+        String addresses = getProperty("shardAddresses", null);
+        if(addresses != null) {
+            for(String address : addresses.split(",")) {
+                String[] hostAndPort = address.trim().split(":");
+                shards.add(new RemoteShard(hostAndPort[0], Integer.parseInt(hostAndPort[1])));
+            }
+        } else {
+            for(int i = 0; i < numShards; i++) {
+                shards.add(new LocalShard(FSDirectory.open(ShardedIndex.shardDir(shardsRoot, i).toPath()), analyzer, bm25));
+            }
+        }
+        TreeMap<String, String> topics = setUpTopicMap(topicsPath);
+        try (ShardedIndex index = new ShardedIndex(shards, analyzer)) {
+            index.searchForTopics(topics, similarity + "-sharded");
+        }
+        Metrics.printSummary(System.out);
+    }
+
+    /**
+     * Expands the queries of all topics with RM3 pseudo-relevance feedback if prf is enabled,
+     * running the feedback of several topics in parallel
+     * @param topics the topics we want to use as search terms
+     * @param analyzer the analyzer used for the query parser
+     * @param searcher the searcher of the first pass
+     * @return the expanded query of each topic, or null if feedback is disabled
+     * @throws ParseException
+     * @throws IOException
+     */
+    static Map<String, Query> expandTopics(TreeMap<String, String> topics, Analyzer analyzer, IndexSearcher searcher)
+            throws ParseException, IOException {
+        if(!getProperty("prf", "false").equals("true")) {
+            return null;
+        }
+        Map<String, Query> queries = new TreeMap<>();
+        for(Map.Entry<String, String> topic : topics.entrySet()) {
+            queries.put(topic.getKey(), new QueryParser("contents", analyzer).parse(topic.getValue()));
+        }
+        RelevanceFeedback feedback = new RelevanceFeedback(searcher, "contents",
+                Integer.parseInt(getProperty("fbDocs", "10")), Integer.parseInt(getProperty("fbTerms", "20")),
+                Float.parseFloat(getProperty("originalQueryWeight", "0.5")));
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            long start = System.nanoTime();
+            Map<String, Query> expanded = feedback.expandAll(queries, executor);
+            if(debugOutput) {
+                System.out.println("Expanded " + expanded.size() + " topics with feedback in " + (System.nanoTime() - start) / 1000000 + " ms");
+            }
+            return expanded;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Creates the analyzer for indexing and querying from stripMarkup, stopwords and stemmer.
+     * An index must be searched with the analyzer it was built with
+     * @return the analyzer
+     * @throws IOException if the stopword file cannot be read
+     */
+    static Analyzer newAnalyzer() throws IOException {
+        return new TrecAnalyzer(TrecAnalyzer.stopwords(getProperty("stopwords", "english")),
+                getProperty("stripMarkup", "false").equals("true"), getProperty("stemmer", "none"));
+    }
+
+    /**
+     * Creates the warmer for newly opened searchers if warmup is enabled
+     * @param analyzer the analyzer the warmup queries are parsed with
+     * @return the warmer, or null if searchers are not warmed
+     * @throws IOException
+     */
+    static SearcherWarmer newWarmer(Analyzer analyzer) throws IOException {
+        if(!getProperty("warmup", "false").equals("true")) {
+            return null;
+        }
+        String warmupQueries = getProperty("warmupQueries", null);
+        return new SearcherWarmer("contents", analyzer,
+                warmupQueries == null ? null : setUpTopicMap(warmupQueries).values());
+    }
+
+    /**
+     * Looks up the TREC document number of a hit, from the docno doc values if the
+     * index has them and from the stored fields otherwise
+     * @param reader the reader the hit was found in
+     * @param doc the document id
+     * @return the docno
+     * @throws IOException
+     */
+    static String docno(IndexReader reader, int doc) throws IOException {
+        List<LeafReaderContext> leaves = reader.leaves();
+        LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(doc, leaves));
+        SortedDocValues docnos = leaf.reader().getSortedDocValues("docno");
+        if(docnos != null) {
+            return docnos.get(doc - leaf.docBase).utf8ToString();
+        }
+        return reader.document(doc).get("docno");
+    }
+
+    /**
+     * Formats one line of a TREC run
+     * @param topic the topic number
+     * @param docno the TREC document number
+     * @param rank the rank, starting at 1
+     * @param score the score of the document
+     * @param runTag the similarity name used in the run tag
+     * @return the run line without line break
+     */
+    static String resultLine(String topic, String docno, int rank, float score, String runTag) {
+        return topic + " Q0" + " " + docno + " " + rank +  " " + score + " grp2-" + runTag;
+    }
+
+    /**
+     * Serves queries from a resident searcher on the index, on a local port if
+     * daemonPort is set and on stdin/stdout otherwise
+     * @param analyzer the preprocessor used
+     * @param bm25 the similarity measure used
+     * @throws IOException
+     */
+    static void runSearchDaemon(Analyzer analyzer, Similarity bm25) throws IOException {
+        Directory index = openDirectory(new File(indexPath).toPath(), getProperty("searchDirectory", "fs"));
+        long refreshSeconds = Long.parseLong(getProperty("daemonRefreshSeconds", "5"));
+        try (SearcherManager manager = new SearcherManager(index, new SimilaritySearcherFactory(bm25, newWarmer(analyzer)));
+             SearchDaemon daemon = new SearchDaemon(manager, analyzer, similarity, refreshSeconds)) {
+            serve(daemon);
+        }
+        Metrics.printSummary(System.err);
+    }
+
+    /**
+     * Runs the queries of queryLog (stdin if "-") as they are read and writes their hits in log
+     * order to streamOutput (stdout if "-"), with a bounded number of queries in flight
+     * @param analyzer the preprocessor used
+     * @param bm25 the similarity measure used
+     * @throws IOException
+     */
+    static void streamQueries(Analyzer analyzer, Similarity bm25) throws IOException {
+        Directory index = openDirectory(new File(indexPath).toPath(), getProperty("searchDirectory", "fs"));
+        int threads = Integer.parseInt(getProperty("streamThreads", Integer.toString(Runtime.getRuntime().availableProcessors())));
+        int inFlight = Integer.parseInt(getProperty("streamInFlight", Integer.toString(4 * threads)));
+        String logPath = getProperty("queryLog", "-");
+        String outputPath = getProperty("streamOutput", "resultsFile" + similarity + "-stream");
+        long start = System.nanoTime();
+        long queries;
+        try (IndexReader reader = DirectoryReader.open(index);
+             BufferedReader log = new BufferedReader(logPath.equals("-")
+                     ? new InputStreamReader(System.in, Charset.defaultCharset()) : new FileReader(logPath), 1 << 16);
+             RunWriter run = new TrecRunWriter(outputPath.equals("-")
+                     ? System.out : new FileOutputStream(outputPath), similarity)) {
+            IndexSearcher searcher = new SimilaritySearcherFactory(bm25, newWarmer(analyzer)).newSearcher(reader, null);
+            queries = new QueryStreamer(searcher, analyzer, threads, inFlight, Integer.parseInt(getProperty("streamHits", "1000")))
+                    .stream(log, getProperty("queryLogFormat", "tsv"), run);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        Metrics.gauge("stream.queriesPerSec", queries / seconds);
+        System.err.printf("Streamed %d queries in %.1f s (%.0f queries/s), %d threads, %d in flight%n",
+                queries, seconds, queries / seconds, threads, inFlight);
+        Metrics.printSummary(System.err);
+    }
+
+    /**
+     * Writes the synthetic collection to synthDir/docs/ and its topics to synthDir/topics.txt,
+     * then optionally benchmarks it with an index in synthDir/index/; a benchmark reuses a
+     * collection that was generated before
+     * @param analyzer the preprocessor used
+     * @param bm25 the similarity measure used
+     * @param benchmark whether to run the {@link IndexBenchmark} after generating
+     * @throws IOException
+     * @throws ParseException
+     */
+    static void runSyntheticCorpus(Analyzer analyzer, Similarity bm25, boolean benchmark) throws IOException, ParseException {
+        File synthDir = new File(getProperty("synthDir", indexPath + "synthetic/"));
+        File docsDir = new File(synthDir, "docs");
+        File topicsFile = new File(synthDir, "topics.txt");
+        if(!benchmark || !topicsFile.exists()) {
+            CorpusGenerator generator = new CorpusGenerator(Integer.parseInt(getProperty("synthDocs", "100000")),
+                    Integer.parseInt(getProperty("synthDocsPerFile", "1000")), Integer.parseInt(getProperty("synthVocabulary", "200000")),
+                    Double.parseDouble(getProperty("synthZipf", "1.0")), Double.parseDouble(getProperty("synthMeanLength", "300")),
+                    Double.parseDouble(getProperty("synthLengthSigma", "0.8")), Long.parseLong(getProperty("synthSeed", "42")));
+            long start = System.nanoTime();
+            long bytes = generator.generate(docsDir, topicsFile, Integer.parseInt(getProperty("synthTopics", "50")));
+            System.out.printf("Generated %.1f MB in %s in %d ms%n", bytes / 1e6, docsDir, (System.nanoTime() - start) / 1000000);
+        }
+        if(benchmark) {
+            IndexBenchmark.run(docsDir, topicsFile, new File(synthDir, "index"), analyzer, bm25);
+            Metrics.printSummary(System.out);
+        }
+    }
+
+    /**
+     * Indexes files dropped into nrtDropDir into the open index while serving queries like
+     * the daemon; new documents become searchable within nrtReopenMillis
+     * @param analyzer the preprocessor used
+     * @param bm25 the similarity measure used
+     * @throws IOException
+     */
+    static void runNearRealTime(Analyzer analyzer, Similarity bm25) throws IOException {
+        IndexWriterConfig config = newIndexWriterConfig(analyzer, bm25);
+        if(bm25 instanceof BM25VASimilarity) {
+            // compute the VA statistics of merged segments in the merge thread, not in the first query
+            final BM25VASimilarity va = (BM25VASimilarity) bm25;
+            config.setMergedSegmentWarmer(new IndexWriter.IndexReaderWarmer() {
+                @Override
+                public void warm(LeafReader reader) throws IOException {
+                    va.warmSegment(reader, "contents");
+                }
+            });
+        }
+        // the drop directory must not be the collection itself, or the first start would index all of it again
+        String dropPath = getProperty("nrtDropDir", null);
+        if(dropPath == null || new File(dropPath).getCanonicalFile().equals(new File(docsPath).getCanonicalFile())) {
+            throw new IllegalArgumentException("nrt mode needs an nrtDropDir separate from docs");
+        }
+        File dropDir = new File(dropPath);
+        IndexWriter writer = new IndexWriter(FSDirectory.open(new File(indexPath).toPath()), config);
+        long reopenMillis = Long.parseLong(getProperty("nrtReopenMillis", "1000"));
+        long commitSeconds = Long.parseLong(getProperty("nrtCommitSeconds", "60"));
+        try (NrtIndexer nrt = new NrtIndexer(writer, new SimilaritySearcherFactory(bm25, newWarmer(analyzer)), dropDir, reopenMillis, commitSeconds);
+             SearchDaemon daemon = new SearchDaemon(nrt.getSearcherManager(), analyzer, similarity, 0)) {
+            serve(daemon);
+        }
+        Metrics.printSummary(System.err);
+    }
+
+    private static void serve(SearchDaemon daemon) throws IOException {
+        int port = Integer.parseInt(getProperty("daemonPort", "0"));
+        if(port > 0) {
+            daemon.serve(port);
+        } else {
+            daemon.serve(new BufferedReader(new InputStreamReader(System.in, Charset.defaultCharset())),
+                    new BufferedWriter(new OutputStreamWriter(System.out, Charset.defaultCharset())));
+        }
+    }
+
+    /**
+     * Builds the impact index for the current similarity next to the regular index
+     * @param bm25 the similarity the impacts are computed with
+     * @throws IOException
+     */
+    static void buildImpactIndex(Similarity bm25) throws IOException {
+        Directory index = FSDirectory.open(new File(indexPath).toPath());
+        IndexReader reader = DirectoryReader.open(index);
+        Directory impacts = FSDirectory.open(new File(indexPath + "impact/").toPath());
+        long start = System.nanoTime();
+        ImpactIndex.build(reader, bm25, "contents", impacts);
+        if(debugOutput) {
+            System.out.println("Built impact index in " + (System.nanoTime() - start) / 1000000 + " ms");
+        }
+        impacts.close();
+        reader.close();
+    }
+
+    /**
+     * Runs the topics on the impact index and reports speed and effectiveness against exact scoring
+     * @param topics the topics we want to use as search terms
+     * @param analyzer the preprocessor used
+     * @param bm25 the similarity the impact index was built with
+     * @throws IOException
+     * @throws ParseException
+     */
+    static void searchImpactIndex(TreeMap<String, String> topics, Analyzer analyzer, Similarity bm25) throws IOException, ParseException {
+        Directory index = FSDirectory.open(new File(indexPath).toPath());
+        IndexReader reader = DirectoryReader.open(index);
+        IndexSearcher searcher = new IndexSearcher(reader);
+        if(bm25 != null) {
+            searcher.setSimilarity(bm25);
+        }
+        Directory impactDir = FSDirectory.open(new File(indexPath + "impact/").toPath());
+        ImpactIndex impacts = ImpactIndex.open(impactDir);
+        long budget = Long.parseLong(getProperty("impactBudget", "0"));
+        ImpactSearcher.compareWithExact(topics, analyzer, searcher, impacts, budget, similarity + "-impact");
+        impacts.close();
+        impactDir.close();
+        reader.close();
+    }
+
+    /**
+     * Writes a pruned copy of the index to prunedIndex with pruneMethod and reports size,
+     * query latency and MAP of the full and the pruned index
+     * @param analyzer the preprocessor used
+     * @param bm25 the similarity measure the postings are scored and searched with
+     * @throws IOException
+     * @throws ParseException
+     */
+    static void pruneIndex(Analyzer analyzer, Similarity bm25) throws IOException, ParseException {
+        Directory full = FSDirectory.open(new File(indexPath).toPath());
+        Directory pruned = FSDirectory.open(new File(getProperty("prunedIndex", indexPath + "pruned/")).toPath());
+        String method = getProperty("pruneMethod", "term");
+        long start = System.nanoTime();
+        try(IndexReader reader = DirectoryReader.open(full)) {
+            IndexPruner pruner = new IndexPruner(reader, bm25, "contents", method,
+                    Integer.parseInt(getProperty("pruneK", "10")), Float.parseFloat(getProperty("pruneEpsilon", "0.7")),
+                    Float.parseFloat(getProperty("pruneRatio", "0.5")));
+            pruner.prune(pruned, newIndexWriterConfig(analyzer, bm25));
+            if(debugOutput) {
+                System.out.printf("Pruned %s-centric in %d ms, kept %d of %d postings (%.1f%%)%n", method,
+                        (System.nanoTime() - start) / 1000000, pruner.getPostingsAfter(), pruner.getPostingsBefore(),
+                        100.0 * pruner.getPostingsAfter() / Math.max(1, pruner.getPostingsBefore()));
+            }
+        }
+        IndexPruner.compare(setUpTopicMap(topicsPath), analyzer, full, pruned, bm25, similarity + "-pruned");
+        pruned.close();
+        full.close();
+    }
+
+    /**
+     * Compares the cascade of a BM25 first pass and cascadeModel at each of the cascadeDepths
+     * @param topics the topics we want to use as search terms
+     * @param analyzer the preprocessor used
+     * @throws IOException
+     * @throws ParseException
+     */
+    static void runCascade(TreeMap<String, String> topics, Analyzer analyzer) throws IOException, ParseException {
+        Directory index = openDirectory(new File(indexPath).toPath(), getProperty("searchDirectory", "fs"));
+        IndexReader reader = DirectoryReader.open(index);
+        String[] depthList = getProperty("cascadeDepths", "100").split(",");
+        int[] depths = new int[depthList.length];
+        for(int i = 0; i < depths.length; i++) {
+            depths[i] = Integer.parseInt(depthList[i].trim());
+        }
+        CascadeRanker.compareDepths(topics, analyzer, reader, getProperty("cascadeModel", "VA"), depths);
+        reader.close();
+    }
+
+    /**
+     * Searches the topics with each of the fusionSimilarities and fuses the runs with the fusion method
+     * @param topics the topics we want to use as search terms
+     * @param analyzer the preprocessor used
+     * @throws IOException
+     * @throws ParseException
+     */
+    static void runFusion(TreeMap<String, String> topics, Analyzer analyzer) throws IOException, ParseException {
+        Directory index = openDirectory(new File(indexPath).toPath(), getProperty("searchDirectory", "fs"));
+        IndexReader reader = DirectoryReader.open(index);
+        Map<String, Similarity> similarities = new LinkedHashMap<>();
+        for(String name : getProperty("fusionSimilarities", "VA,ORIGINAL,default").split(",")) {
+            similarities.put(name.trim(), getSimilarity(name.trim()));
+        }
+        RunFusion fusion = new RunFusion(getProperty("fusion", "rrf"), Integer.parseInt(getProperty("rrfK", "60")));
+        RunFusion.searchAndFuse(topics, analyzer, reader, similarities, fusion);
+        reader.close();
+    }
+
+    /**
+     * Replays the topics, or the first loadQueries queries of queryLog, against the index with
+     * each of loadSimilarities and reports QPS and latency quantiles
+     * @param analyzer the analyzer used for the query parser
+     * @throws IOException
+     * @throws ParseException
+     */
+    static void runLoadTest(Analyzer analyzer) throws IOException, ParseException {
+        int numQueries = Integer.parseInt(getProperty("loadQueries", "10000"));
+        List<Query> queries = new ArrayList<>();
+        String logPath = getProperty("queryLog", null);
+        if(logPath != null) {
+            try(BufferedReader log = new BufferedReader(new FileReader(logPath))) {
+                String line;
+                while(queries.size() < numQueries && (line = log.readLine()) != null) {
+                    Query q = QueryStreamer.parseLogged(line.substring(line.indexOf('\t') + 1), analyzer);
+                    if(q != null) {
+                        queries.add(q);
+                    }
+                }
+            }
+        } else {
+            for(String querystr : setUpTopicMap(topicsPath).values()) {
+                queries.add(new QueryParser("contents", analyzer).parse(querystr));
+            }
+        }
+        Map<String, Similarity> similarities = new LinkedHashMap<>();
+        for(String name : getProperty("loadSimilarities", "ORIGINAL,L,VA").split(",")) {
+            // BM25L has no index of its own; it scores the index at query time, as in CascadeRanker
+            similarities.put(name.trim(), name.trim().equals("L") ? new BM25LSimilarity() : getSimilarity(name.trim()));
+        }
+        int concurrency = Integer.parseInt(getProperty("loadConcurrency", Integer.toString(Runtime.getRuntime().availableProcessors())));
+        Directory index = openDirectory(new File(indexPath).toPath(), getProperty("searchDirectory", "fs"));
+        try(IndexReader reader = DirectoryReader.open(index)) {
+            new LoadTester(reader, queries, concurrency, Double.parseDouble(getProperty("loadRate", "0")), numQueries)
+                    .run(similarities);
+        }
+        Metrics.printSummary(System.out);
+    }
+
     /**
      * This method reads the topics file into a TreeMap (like a hashMap but sorted Keys)
      * @param topicsPath the path for the topicsTREC8Adhoc.txt
@@ -124,6 +677,7 @@ public class Main {
      * @throws IOException
      */
     static TreeMap<String, String> setUpTopicMap(String topicsPath) throws IOException {
+        long start = Metrics.start();
         TreeMap<String, String> topics = new TreeMap<>();
         BufferedReader br = new BufferedReader(new FileReader(topicsPath));
         String number = "default", title = "default";
@@ -139,6 +693,7 @@ public class Main {
                 topics.put(number, title);
             }
         }
+        Metrics.record("topics.parse", start);
         return topics;
     }
 
@@ -150,29 +705,203 @@ public class Main {
      * @throws IOException shouldn't happen :)
      */
     static Directory setUpIndex(Analyzer analyzer, Similarity bm25) throws IOException {
-        IndexWriterConfig config = new IndexWriterConfig(analyzer);
-        if(bm25 != null) {
-            config.setSimilarity(bm25);
-        }
         //our index we write entries to, is on file system
         FSDirectory index = FSDirectory.open(new File(indexPath).toPath());
+        long start = System.nanoTime();
+        int numDocs = buildIndex(index, new File(docsPath), getProperty("indexDirectory", "fs").equals("ram"), analyzer, bm25);
+        long nanos = System.nanoTime() - start;
+        Metrics.recordNanos("index.build", nanos);
+        Metrics.gauge("index.docsPerSec", numDocs / (nanos / 1e9));
+        return index;
+    }
+
+    /**
+     * Indexes the collection into a directory
+     * @param index the directory the index ends up in
+     * @param docs the collection, a file or a directory of files
+     * @param inRam build the whole index in memory and copy it to the directory once at the end,
+     *              replacing any index there; for collections that fit into the heap
+     * @param analyzer the analyzer to be used to preprocess the data
+     * @param bm25 the similarity function to be used
+     * @return the number of documents in the index
+     * @throws IOException
+     */
+    static int buildIndex(Directory index, File docs, boolean inRam, Analyzer analyzer, Similarity bm25) throws IOException {
+        IndexWriterConfig config = bulkLoadConfig(newIndexWriterConfig(analyzer, bm25));
+        Directory target = inRam ? new RAMDirectory() : index;
         //init writer
-        IndexWriter w = new IndexWriter(index, config);
+        IndexWriter w = new IndexWriter(target, config);
 
-        //index the docs in the docsPath
-        File docDir = new File(docsPath);
-        indexDocs(w, docDir);
+        //index the docs in the docsPath, optionally without their near-duplicates
+        long start = System.nanoTime();
+        String dedup = getProperty("dedup", "none");
+        if(dedup.equals("none")) {
+            indexDocs(w, docs, null);
+        } else {
+            MinHashDeduplicator deduplicator = new MinHashDeduplicator(w, dedup.equals("mark"),
+                    Float.parseFloat(getProperty("dedupThreshold", "0.9")));
+            try {
+                indexDocs(w, docs, deduplicator);
+            } finally {
+                deduplicator.close();
+            }
+            if(debugOutput) {
+                System.out.println((dedup.equals("mark") ? "Marked " : "Dropped ") + deduplicator.getDuplicates() + " of "
+                        + deduplicator.getSeen() + " documents as near-duplicates, signature index "
+                        + deduplicator.signatureIndexBytes() / 1024 + " KB");
+            }
+        }
+        int numDocs = w.maxDoc();
+        finishBulkLoad(w, start);
         w.close();
-        return index;
+        if(inRam) {
+            copyIndex(target, index);
+            target.close();
+        }
+        return numDocs;
+    }
+
+    /**
+     * Applies the indexProfile to a writer configuration for loading a whole collection at once.
+     * The "bulk" profile buffers many documents in RAM, merges with one thread per core,
+     * writes no compound files and can force-merge at the end; "default" keeps Lucene's settings.
+     * @param config the config from {@link #newIndexWriterConfig}
+     * @return the same config
+     */
+    static IndexWriterConfig bulkLoadConfig(IndexWriterConfig config) {
+        if(!getProperty("indexProfile", "default").equals("bulk")) {
+            return config;
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        config.setRAMBufferSizeMB(Double.parseDouble(getProperty("ramBufferMB", "512")));
+        int mergeThreads = Integer.parseInt(getProperty("mergeThreads", String.valueOf(cores)));
+        ((ConcurrentMergeScheduler) config.getMergeScheduler()).setMaxMergesAndThreads(mergeThreads + 5, mergeThreads);
+        TieredMergePolicy mergePolicy = new TieredMergePolicy();
+        mergePolicy.setNoCFSRatio(0.0);
+        config.setMergePolicy(mergePolicy);
+        config.setUseCompoundFile(false);
+        return config;
+    }
+
+    /**
+     * Optionally force-merges a bulk-loaded index and reports build time and segment count
+     * @param w the writer the collection was loaded with, still open
+     * @param start when loading started, from {@link System#nanoTime}
+     * @throws IOException
+     */
+    static void finishBulkLoad(IndexWriter w, long start) throws IOException {
+        int maxSegments = Integer.parseInt(getProperty("forceMergeSegments", "0"));
+        w.commit();
+        int flushedSegments = SegmentInfos.readLatestCommit(w.getDirectory()).size();
+        int segments = flushedSegments;
+        if(maxSegments > 0) {
+            long mergeStart = Metrics.start();
+            w.forceMerge(maxSegments);
+            w.commit();
+            Metrics.record("index.forceMerge", mergeStart);
+            segments = SegmentInfos.readLatestCommit(w.getDirectory()).size();
+        }
+        Metrics.gauge("index.segments", segments);
+        long bytes = 0;
+        for(String file : SegmentInfos.readLatestCommit(w.getDirectory()).files(true)) {
+            bytes += w.getDirectory().fileLength(file);
+        }
+        Metrics.gauge("index.bytes", bytes);
+        if(debugOutput) {
+            System.out.println("Indexed " + w.maxDoc() + " documents with profile " + getProperty("indexProfile", "default")
+                    + " in " + (System.nanoTime() - start) / 1000000 + " ms, " + flushedSegments + " segments"
+                    + (maxSegments > 0 ? ", " + segments + " after force merge" : "") + ", " + bytes / 1024 + " KB");
+        }
+    }
+
+    /**
+     * Replaces the index in one directory with a copy of the index in another. The commit
+     * point is copied last, so an interrupted copy leaves no index behind instead of a broken one.
+     * @param from the directory holding a committed index
+     * @param to the directory to copy to, existing index files are deleted
+     * @throws IOException
+     */
+    static void copyIndex(Directory from, Directory to) throws IOException {
+        deleteIndexFiles(to);
+        List<String> files = new ArrayList<>();
+        String commit = null;
+        for(String file : from.listAll()) {
+            if(file.startsWith(IndexFileNames.SEGMENTS)) {
+                commit = file;
+            } else {
+                files.add(file);
+            }
+        }
+        if(commit != null) {
+            files.add(commit);
+        }
+        for(String file : files) {
+            to.copyFrom(from, file, file, IOContext.DEFAULT);
+        }
+        to.sync(files);
+    }
+
+    /**
+     * Deletes the files of a Lucene index, leaving other files and subdirectories
+     * such as impact/ alone
+     * @param dir the index directory
+     * @throws IOException
+     */
+    static void deleteIndexFiles(Directory dir) throws IOException {
+        for(String file : dir.listAll()) {
+            if(file.startsWith(IndexFileNames.SEGMENTS) || IndexFileNames.CODEC_FILE_PATTERN.matcher(file).matches()) {
+                dir.deleteFile(file);
+            }
+        }
+    }
+
+    /**
+     * Opens an existing index for searching
+     * @param path the index directory on disk
+     * @param backend "mmap", "nio", "ram" to load the whole index onto the heap,
+     *                or anything else for the platform default chosen by {@link FSDirectory#open}
+     * @return the directory
+     * @throws IOException
+     */
+    static Directory openDirectory(Path path, String backend) throws IOException {
+        switch(backend) {
+            case "mmap":
+                return new MMapDirectory(path);
+            case "nio":
+                return new NIOFSDirectory(path);
+            case "ram":
+                try(FSDirectory dir = FSDirectory.open(path)) {
+                    return new RAMDirectory(dir, IOContext.READONCE);
+                }
+            default:
+                return FSDirectory.open(path);
+        }
+    }
+
+    /**
+     * The writer configuration shared by all ways of building the index
+     * @param analyzer the analyzer to be used to preprocess the data
+     * @param bm25 the similarity function to be used
+     * @return a new config
+     */
+    static IndexWriterConfig newIndexWriterConfig(Analyzer analyzer, Similarity bm25) {
+        IndexWriterConfig config = new IndexWriterConfig(analyzer);
+        if(bm25 != null) {
+            config.setSimilarity(bm25);
+        }
+        config.setMergeScheduler(Metrics.mergeScheduler());
+        config.setInfoStream(Metrics.infoStream());
+        return config;
     }
 
     /**
      * Iterates through the TREC library folders and indexes everything
      * @param writer allows us to write to the index
      * @param file any directory or file in the TREC folders
+     * @param deduplicator filters near-duplicates before they are written, null to index all documents
      * @throws IOException
      */
-    static void indexDocs(IndexWriter writer, File file)
+    static void indexDocs(IndexWriter writer, File file, MinHashDeduplicator deduplicator)
             throws IOException {
         // do not try to index files that cannot be read
         if (file.canRead()) {
@@ -181,27 +910,47 @@ public class Main {
                 // an IO error could occur
                 if (files != null) {
                     for (int i = 0; i < files.length; i++) {
-                        indexDocs(writer, new File(file, files[i]));
+                        indexDocs(writer, new File(file, files[i]), deduplicator);
                     }
                 }
             } else {
-                TrecDocIterator docs = new TrecDocIterator(file);
-                Document doc;
-                while (docs.hasNext()) {
-                    doc = docs.next();
-                    if (doc != null && doc.getField("contents") != null) {
-                        writer.addDocument(doc);
+                try (TrecDocIterator docs = new TrecDocIterator(file)) {
+                    Document doc;
+                    while (docs.hasNext()) {
+                        long start = Metrics.start();
+                        doc = docs.next();
+                        Metrics.record("index.parse", start);
+                        if (doc != null && doc.getField("contents") != null) {
+                            if (deduplicator != null) {
+                                deduplicator.add(doc);
+                            } else {
+                                addDocument(writer, doc);
+                            }
+                        }
                     }
                 }
             }
         }
     }
 
+    /**
+     * Adds one parsed document to the index
+     * @param writer allows us to write to the index
+     * @param doc the document from {@link TrecDocIterator}
+     * @throws IOException
+     */
+    static void addDocument(IndexWriter writer, Document doc) throws IOException {
+        long start = Metrics.start();
+        writer.addDocument(doc);
+        Metrics.record("index.addDocument", start);
+        Metrics.count("index.docs", 1);
+    }
+
     static void loadProperties() {
         File configFile = new File("config.properties");
         try {
             FileReader reader = new FileReader(configFile);
-            Properties props = new Properties();
+            Properties props = properties;
             props.load(reader);
             docsPath = props.getProperty("docs");
             topicsPath = props.getProperty("topics");
@@ -222,4 +971,33 @@ public class Main {
             // I/O error
         }
     }
+
+    /**
+     * Collects the terms of the bag-of-words queries produced by the QueryParser.
+     * Terms are kept once per occurrence so repeated query terms count twice.
+     */
+    static void collectTerms(Query query, List<Term> terms) {
+        if (query instanceof TermQuery) {
+            terms.add(((TermQuery) query).getTerm());
+        } else if (query instanceof BoostQuery) {
+            collectTerms(((BoostQuery) query).getQuery(), terms);
+        } else if (query instanceof BooleanQuery) {
+            for (BooleanClause clause : ((BooleanQuery) query).clauses()) {
+                if (clause.getOccur() != BooleanClause.Occur.MUST_NOT) {
+                    collectTerms(clause.getQuery(), terms);
+                }
+            }
+        }
+    }
+
+    /**
+     * Optional settings from config.properties
+     * @param key the name of the setting
+     * @param defaultValue returned if the setting is missing
+     * @return the trimmed value of the setting
+     */
+    static String getProperty(String key, String defaultValue) {
+        String value = properties.getProperty(key);
+        return value == null ? defaultValue : value.trim();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,209 @@
+package main;
+
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.MergePolicy;
+import org.apache.lucene.util.InfoStream;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide counters, gauges and latency histograms for the indexing and search phases.
+ * Recording is a no-op unless metrics are enabled, so the calls can stay in the hot paths.
+ * Usage: <code>long start = Metrics.start(); ...; Metrics.record("query.analyze", start);</code>
+ */
+public final class Metrics {
+    private static volatile boolean enabled = false;
+    private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private static final Map<String, Double> gauges = new ConcurrentHashMap<>();
+    private static final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    static void setEnabled(boolean enable) {
+        enabled = enable;
+    }
+
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the start time to pass to {@link #record}, 0 if metrics are disabled
+     */
+    static long start() {
+        return enabled ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * Records the time elapsed since start in the named histogram
+     */
+    static void record(String name, long start) {
+        if (enabled) {
+            histogram(name).record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Records an already measured duration in the named histogram
+     */
+    static void recordNanos(String name, long nanos) {
+        if (enabled) {
+            histogram(name).record(nanos);
+        }
+    }
+
+    static void count(String name, long delta) {
+        if (enabled) {
+            LongAdder counter = counters.get(name);
+            if (counter == null) {
+                counter = counters.computeIfAbsent(name, key -> new LongAdder());
+            }
+            counter.add(delta);
+        }
+    }
+
+    static void gauge(String name, double value) {
+        if (enabled) {
+            gauges.put(name, value);
+        }
+    }
+
+    /**
+     * @return the bytes the current thread has allocated so far, 0 if metrics are disabled or
+     *         the JVM does not measure allocations; the difference of two calls is what the
+     *         thread allocated in between
+     */
+    static long allocatedBytes() {
+        if (enabled && THREADS instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0L;
+    }
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    static LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = histograms.get(name);
+        if (histogram == null) {
+            histogram = histograms.computeIfAbsent(name, key -> new LatencyHistogram());
+        }
+        return histogram;
+    }
+
+    /**
+     * Prints all metrics as a table, latencies in milliseconds
+     */
+    static void printSummary(PrintStream out) {
+        if (!enabled) {
+            return;
+        }
+        out.println("---- metrics ----");
+        out.printf("%-24s %8s %12s %10s %10s %10s %10s%n", "timer", "count", "total ms", "mean ms", "p50 ms", "p99 ms", "max ms");
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(histograms).entrySet()) {
+            LatencyHistogram h = entry.getValue();
+            out.printf("%-24s %8d %12.3f %10.3f %10.3f %10.3f %10.3f%n", entry.getKey(), h.getCount(),
+                    h.getSum() / 1e6, h.getMean() / 1e6, h.getQuantile(0.5) / 1e6, h.getQuantile(0.99) / 1e6, h.getMax() / 1e6);
+        }
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<>(counters).entrySet()) {
+            out.printf("%-24s %d%n", entry.getKey(), entry.getValue().sum());
+        }
+        for (Map.Entry<String, Double> entry : new TreeMap<>(gauges).entrySet()) {
+            out.printf("%-24s %.3f%n", entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Writes all metrics as JSON, latencies in nanoseconds
+     */
+    static void dump(File file) throws IOException {
+        StringBuilder json = new StringBuilder("{\n  \"timers\": {");
+        String separator = "\n";
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(histograms).entrySet()) {
+            LatencyHistogram h = entry.getValue();
+            json.append(separator).append("    \"").append(entry.getKey()).append("\": {")
+                    .append("\"count\": ").append(h.getCount())
+                    .append(", \"sumNanos\": ").append(h.getSum())
+                    .append(", \"p50\": ").append(h.getQuantile(0.5))
+                    .append(", \"p90\": ").append(h.getQuantile(0.9))
+                    .append(", \"p99\": ").append(h.getQuantile(0.99))
+                    .append(", \"p999\": ").append(h.getQuantile(0.999))
+                    .append(", \"max\": ").append(h.getMax()).append('}');
+            separator = ",\n";
+        }
+        json.append("\n  },\n  \"counters\": {");
+        separator = "\n";
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<>(counters).entrySet()) {
+            json.append(separator).append("    \"").append(entry.getKey()).append("\": ").append(entry.getValue().sum());
+            separator = ",\n";
+        }
+        json.append("\n  },\n  \"gauges\": {");
+        separator = "\n";
+        for (Map.Entry<String, Double> entry : new TreeMap<>(gauges).entrySet()) {
+            json.append(separator).append("    \"").append(entry.getKey()).append("\": ").append(entry.getValue());
+            separator = ",\n";
+        }
+        json.append("\n  }\n}\n");
+        FileUtils.writeStringToFile(file, json.toString(), Charset.defaultCharset(), false);
+    }
+
+    /**
+     * @return an info stream recording segment flush times, or the default one if metrics are disabled
+     */
+    static InfoStream infoStream() {
+        return enabled ? new FlushTimeInfoStream() : InfoStream.getDefault();
+    }
+
+    /**
+     * @return a merge scheduler recording merge times
+     */
+    static ConcurrentMergeScheduler mergeScheduler() {
+        return new TimedMergeScheduler();
+    }
+
+    /**
+     * Picks up the flush time IndexWriter logs for every flushed segment.
+     */
+    private static class FlushTimeInfoStream extends InfoStream {
+        private static final String FLUSH_TIME = "flush time ";
+
+        @Override
+        public void message(String component, String message) {
+            if (message.startsWith(FLUSH_TIME)) {
+                int end = message.indexOf(' ', FLUSH_TIME.length());
+                double millis = Double.parseDouble(message.substring(FLUSH_TIME.length(), end));
+                recordNanos("index.flush", (long) (millis * 1e6));
+            }
+        }
+
+        @Override
+        public boolean isEnabled(String component) {
+            return "DWPT".equals(component);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class TimedMergeScheduler extends ConcurrentMergeScheduler {
+        @Override
+        protected void doMerge(IndexWriter writer, MergePolicy.OneMerge merge) throws IOException {
+            long start = start();
+            super.doMerge(writer, merge);
+            record("index.merge", start);
+            count("index.mergedDocs", merge.totalMaxDoc);
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package main;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.util.ArrayUtil;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Ingest stage between {@link TrecDocIterator} and the IndexWriter that finds near-duplicate
+ * documents. Every document gets a MinHash signature of its word 3-shingles, computed in
+ * parallel for a batch of documents. The signatures of the kept documents are split into
+ * {@link #BANDS} bands, and a document is a duplicate of the first kept document that shares
+ * a band with it and whose signatures agree in at least {@code threshold} of the positions,
+ * which estimates their Jaccard similarity. Duplicates are dropped or indexed with a
+ * {@code duplicateOf} field holding the docno of the kept document.
+ * Documents are decided in collection order, so the first of a group of duplicates is kept.
+ */
+public class MinHashDeduplicator implements Closeable {
+    static final int BANDS = 16;
+    static final int ROWS = 4;
+    static final int NUM_HASHES = BANDS * ROWS;
+    private static final int BATCH_SIZE = 256;
+
+    private final IndexWriter writer;
+    private final boolean mark;
+    private final int minMatches;
+    private final long[] multipliers = new long[NUM_HASHES];
+    private final long[] increments = new long[NUM_HASHES];
+    private final ExecutorService executor;
+    private final List<Document> batch = new ArrayList<>(BATCH_SIZE);
+
+    // signature index: signatures and docnos of the kept documents, and per band the kept
+    // documents by band key, chained through next
+    private int[] signatures = new int[0];
+    private final List<String> docnos = new ArrayList<>();
+    private final BandTable[] bandTables = new BandTable[BANDS];
+    private final int[][] next = new int[BANDS][];
+    private int seen;
+    private int duplicates;
+
+    /**
+     * @param writer the writer kept documents (and marked duplicates) are added to
+     * @param mark true to index duplicates with a duplicateOf field, false to drop them
+     * @param threshold the estimated Jaccard similarity from which a document is a duplicate
+     */
+    public MinHashDeduplicator(IndexWriter writer, boolean mark, float threshold) {
+        this.writer = writer;
+        this.mark = mark;
+        this.minMatches = (int) Math.ceil(threshold * NUM_HASHES);
+        Random random = new Random(42);
+        for (int i = 0; i < NUM_HASHES; i++) {
+            multipliers[i] = random.nextLong() | 1;
+            increments[i] = random.nextLong();
+        }
+        for (int band = 0; band < BANDS; band++) {
+            bandTables[band] = new BandTable();
+            next[band] = new int[0];
+        }
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Queues a document; documents are signed and written a batch at a time
+     * @param doc a document from {@link TrecDocIterator}
+     * @throws IOException
+     */
+    public void add(Document doc) throws IOException {
+        batch.add(doc);
+        if (batch.size() == BATCH_SIZE) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        long start = Metrics.start();
+        List<Future<int[]>> signed = new ArrayList<>(batch.size());
+        for (Document doc : batch) {
+            String text = doc.get("contents");
+            signed.add(executor.submit(() -> signature(text)));
+        }
+        int[][] batchSignatures = new int[batch.size()][];
+        for (int i = 0; i < batchSignatures.length; i++) {
+            try {
+                batchSignatures[i] = signed.get(i).get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IOException("Computing the MinHash signature failed", e);
+            }
+        }
+        Metrics.record("index.minhash", start);
+
+        for (int i = 0; i < batchSignatures.length; i++) {
+            Document doc = batch.get(i);
+            int[] signature = batchSignatures[i];
+            seen++;
+            int original = signature == null ? -1 : findDuplicate(signature);
+            if (original >= 0) {
+                duplicates++;
+                Metrics.count("index.duplicates", 1);
+                if (!mark) {
+                    continue;
+                }
+                doc.add(new StringField("duplicateOf", docnos.get(original), Field.Store.YES));
+            } else if (signature != null) {
+                insert(signature, doc.get("docno"));
+            }
+            Main.addDocument(writer, doc);
+        }
+        batch.clear();
+    }
+
+    /**
+     * @return the MinHash signature of the word 3-shingles outside of SGML tags, null if the text has no words
+     */
+    int[] signature(String text) {
+        long[] mins = new long[NUM_HASHES];
+        Arrays.fill(mins, Long.MAX_VALUE);
+        long previous2 = 0, previous1 = 0, word = 0;
+        int words = 0;
+        boolean inWord = false, inTag = false;
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (inTag) {
+                inTag = c != '>';
+                c = ' ';
+            } else if (c == '<') {
+                inTag = true;
+                c = ' ';
+            }
+            if (Character.isLetterOrDigit(c)) {
+                word = (word ^ Character.toLowerCase(c)) * 0x100000001B3L;
+                inWord = true;
+            } else if (inWord) {
+                words++;
+                if (words >= 3) {
+                    addShingle(mins, mix(previous2 + 31 * (previous1 + 31 * word)));
+                }
+                previous2 = previous1;
+                previous1 = word;
+                word = 0;
+                inWord = false;
+            }
+        }
+        if (words == 0) {
+            return null;
+        } else if (words < 3) {
+            addShingle(mins, mix(previous2 + 31 * previous1));
+        }
+        int[] signature = new int[NUM_HASHES];
+        for (int i = 0; i < NUM_HASHES; i++) {
+            signature[i] = (int) (mins[i] >>> 31);
+        }
+        return signature;
+    }
+
+    private void addShingle(long[] mins, long shingle) {
+        for (int i = 0; i < NUM_HASHES; i++) {
+            long h = (multipliers[i] * shingle + increments[i]) >>> 1;
+            if (h < mins[i]) {
+                mins[i] = h;
+            }
+        }
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static long bandKey(int[] signature, int band) {
+        long key = band;
+        for (int row = band * ROWS; row < (band + 1) * ROWS; row++) {
+            key = key * 0x9E3779B97F4A7C15L + signature[row];
+        }
+        return mix(key);
+    }
+
+    private int findDuplicate(int[] signature) {
+        int best = -1;
+        for (int band = 0; band < BANDS; band++) {
+            for (int doc = bandTables[band].get(bandKey(signature, band)); doc != -1; doc = next[band][doc]) {
+                if ((best == -1 || doc < best) && matches(signature, doc) >= minMatches) {
+                    best = doc;
+                }
+            }
+        }
+        return best;
+    }
+
+    private int matches(int[] signature, int doc) {
+        int matches = 0;
+        for (int i = 0, j = doc * NUM_HASHES; i < NUM_HASHES; i++, j++) {
+            if (signature[i] == signatures[j]) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+
+    private void insert(int[] signature, String docno) {
+        int doc = docnos.size();
+        docnos.add(docno);
+        signatures = ArrayUtil.grow(signatures, (doc + 1) * NUM_HASHES);
+        System.arraycopy(signature, 0, signatures, doc * NUM_HASHES, NUM_HASHES);
+        for (int band = 0; band < BANDS; band++) {
+            next[band] = ArrayUtil.grow(next[band], doc + 1);
+            next[band][doc] = bandTables[band].put(bandKey(signature, band), doc);
+        }
+    }
+
+    /**
+     * @return the number of documents passed to {@link #add}
+     */
+    public int getSeen() {
+        return seen;
+    }
+
+    /**
+     * @return the number of documents found to be near-duplicates
+     */
+    public int getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * @return the approximate heap size of the signature index in bytes, docnos excluded
+     */
+    public long signatureIndexBytes() {
+        long bytes = (long) signatures.length * Integer.BYTES;
+        for (int band = 0; band < BANDS; band++) {
+            bytes += (long) next[band].length * Integer.BYTES + bandTables[band].bytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes the remaining queued documents and stops the signature threads
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Open-addressing map from a band key to the last kept document inserted with it.
+     */
+    private static final class BandTable {
+        private long[] keys = new long[1024];
+        private int[] docs = new int[1024];
+        private int size;
+
+        BandTable() {
+            Arrays.fill(docs, -1);
+        }
+
+        int get(long key) {
+            int mask = keys.length - 1;
+            for (int slot = (int) key & mask; docs[slot] != -1; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return docs[slot];
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * @return the document previously stored under the key, -1 if none
+         */
+        int put(long key, int doc) {
+            int mask = keys.length - 1;
+            int slot = (int) key & mask;
+            for (; docs[slot] != -1; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    int previous = docs[slot];
+                    docs[slot] = doc;
+                    return previous;
+                }
+            }
+            keys[slot] = key;
+            docs[slot] = doc;
+            if (++size > keys.length / 2) {
+                rehash();
+            }
+            return -1;
+        }
+
+        private void rehash() {
+            long[] oldKeys = keys;
+            int[] oldDocs = docs;
+            keys = new long[oldKeys.length * 2];
+            docs = new int[oldDocs.length * 2];
+            Arrays.fill(docs, -1);
+            size = 0;
+            for (int slot = 0; slot < oldKeys.length; slot++) {
+                if (oldDocs[slot] != -1) {
+                    put(oldKeys[slot], oldDocs[slot]);
+                }
+            }
+        }
+
+        long bytes() {
+            return (long) keys.length * Long.BYTES + (long) docs.length * Integer.BYTES;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package main;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TrackingIndexWriter;
+import org.apache.lucene.search.ControlledRealTimeReopenThread;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherManager;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Near-real-time indexing of a growing TREC collection: files appearing in a drop directory
+ * are fed through {@link TrecDocIterator} into one long-lived IndexWriter, and the
+ * {@link SearcherManager} is reopened from the writer without a commit. Documents are
+ * updated by docno, so a file delivered twice does not create duplicates.
+ */
+public class NrtIndexer implements Closeable {
+    private final IndexWriter writer;
+    private final TrackingIndexWriter trackingWriter;
+    private final SearcherManager searcherManager;
+    private final ControlledRealTimeReopenThread<IndexSearcher> reopenThread;
+    private final File dropDir;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    /**
+     * commit user data key of the files already indexed, one name per line
+     */
+    static final String INDEXED_FILES = "nrt.indexedFiles";
+    /**
+     * files already indexed, stored with every commit so a restart does not index them again
+     */
+    private final Set<String> indexed = new HashSet<>();
+    /**
+     * length of files seen in the previous poll, a file is only indexed once its length is stable
+     */
+    private final Map<String, Long> pending = new HashMap<>();
+
+    /**
+     * @param writer the writer the new documents are added to, owned by this indexer from now on
+     * @param searcherFactory creates the searchers of the reopened readers
+     * @param dropDir the directory new collection files are copied to
+     * @param reopenMillis maximum time until added documents are searchable
+     * @param commitSeconds how often changes are committed to disk
+     * @throws IOException
+     */
+    public NrtIndexer(IndexWriter writer, SimilaritySearcherFactory searcherFactory, File dropDir,
+                      long reopenMillis, long commitSeconds) throws IOException {
+        this.writer = writer;
+        this.trackingWriter = new TrackingIndexWriter(writer);
+        this.searcherManager = new SearcherManager(writer, searcherFactory);
+        this.reopenThread = new ControlledRealTimeReopenThread<>(trackingWriter, searcherManager,
+                reopenMillis / 1000.0, Math.min(0.1, reopenMillis / 1000.0));
+        this.reopenThread.setName("NRT reopen");
+        this.reopenThread.setDaemon(true);
+        this.reopenThread.start();
+        this.dropDir = dropDir;
+        String committed = writer.getCommitData().get(INDEXED_FILES);
+        if (committed != null && !committed.isEmpty()) {
+            indexed.addAll(Arrays.asList(committed.split("\n")));
+        }
+        scheduler.scheduleWithFixedDelay(this::poll, 0, 1, TimeUnit.SECONDS);
+        scheduler.scheduleWithFixedDelay(this::commit, commitSeconds, commitSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @return the searchers over the indexed documents, including uncommitted ones
+     */
+    public SearcherManager getSearcherManager() {
+        return searcherManager;
+    }
+
+    private void poll() {
+        try {
+            String[] files = dropDir.list();
+            if (files == null) {
+                return;
+            }
+            Arrays.sort(files);
+            for (String name : files) {
+                File file = new File(dropDir, name);
+                if (indexed.contains(name) || !file.isFile() || !file.canRead()) {
+                    continue;
+                }
+                Long lastLength = pending.put(name, file.length());
+                if (lastLength == null || lastLength != file.length()) {
+                    // still being written, check again on the next poll
+                    continue;
+                }
+                pending.remove(name);
+                indexFile(file);
+                indexed.add(name);
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Indexing new files failed: " + e);
+        }
+    }
+
+    private void indexFile(File file) throws IOException {
+        long start = System.nanoTime();
+        int count = 0;
+        try (TrecDocIterator docs = new TrecDocIterator(file)) {
+            while (docs.hasNext()) {
+                Document doc = docs.next();
+                if (doc != null && doc.getField("contents") != null) {
+                    String docno = doc.get("docno");
+                    if (docno == null) {
+                        trackingWriter.addDocument(doc);
+                    } else {
+                        trackingWriter.updateDocument(new Term("docno", docno), doc);
+                    }
+                    count++;
+                }
+            }
+        }
+        Metrics.count("index.docs", count);
+        Metrics.record("nrt.indexFile", start);
+        if (Main.debugOutput) {
+            System.err.println("Indexed " + count + " documents from " + file + " in "
+                    + (System.nanoTime() - start) / 1000000 + " ms");
+        }
+    }
+
+    private void commit() {
+        try {
+            recordIndexedFiles();
+            writer.commit();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Commit failed: " + e);
+        }
+    }
+
+    private void recordIndexedFiles() {
+        Map<String, String> data = new HashMap<>(writer.getCommitData());
+        data.put(INDEXED_FILES, String.join("\n", new TreeSet<>(indexed)));
+        writer.setCommitData(data);
+    }
+
+    /**
+     * Stops watching the drop directory, commits and closes the writer.
+     */
+    @Override
+    public void close() throws IOException {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        reopenThread.close();
+        searcherManager.close();
+        // closing commits, so the files indexed since the last commit are recorded as well
+        recordIndexedFiles();
+        writer.close();
+    }
+}
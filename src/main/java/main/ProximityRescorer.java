@@ -0,0 +1,178 @@
+package main;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.CollectionStatistics;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Rescorer;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermStatistics;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.util.ArrayUtil;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Adds a term-pair proximity score to the first-pass score of the top documents, after
+ * Rasolofo and Savoy's BM25TP: every pair of query terms occurring within {@code window}
+ * positions of each other contributes 1 / distance<sup>2</sup>, the contributions of a pair are
+ * saturated like BM25 term frequencies and weighted by the smaller idf of the two terms.
+ * The first-pass score comes from whichever similarity the searcher uses, so this works on
+ * top of BM25, BM25L and BM25VA alike. Positions are only read for the rescored documents.
+ */
+public class ProximityRescorer extends Rescorer {
+    private final String field;
+    private final List<Term> terms;
+    private final float weight;
+    private final int window;
+    private final float k1;
+
+    /**
+     * @param field the field whose positions are read
+     * @param queryTerms the terms of the original query, duplicates are ignored
+     * @param weight the weight of the proximity score against the first-pass score
+     * @param window the largest distance between two terms that still counts
+     * @param k1 saturation of the proximity contributions of a pair
+     */
+    public ProximityRescorer(String field, List<Term> queryTerms, float weight, int window, float k1) {
+        this.field = field;
+        this.terms = new ArrayList<>();
+        for (Term term : new LinkedHashSet<>(queryTerms)) {
+            if (term.field().equals(field)) {
+                terms.add(term);
+            }
+        }
+        this.weight = weight;
+        this.window = window;
+        this.k1 = k1;
+    }
+
+    /**
+     * Rescores the first topN hits; the remaining hits keep their first-pass score and order,
+     * which stays consistent because the proximity score is never negative
+     */
+    @Override
+    public TopDocs rescore(IndexSearcher searcher, TopDocs firstPassTopDocs, int topN) throws IOException {
+        ScoreDoc[] hits = firstPassTopDocs.scoreDocs.clone();
+        int n = Math.min(topN, hits.length);
+        if (terms.size() < 2 || n == 0) {
+            return firstPassTopDocs;
+        }
+        for (int i = 0; i < n; i++) {
+            hits[i] = new ScoreDoc(hits[i].doc, hits[i].score, hits[i].shardIndex);
+        }
+        long start = Metrics.start();
+        float[] idf = idf(searcher);
+
+        // visit the candidates in doc id order so each postings list is only advanced forward
+        ScoreDoc[] candidates = Arrays.copyOf(hits, n);
+        Arrays.sort(candidates, Comparator.comparingInt((ScoreDoc hit) -> hit.doc));
+        List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+        PostingsEnum[] postings = new PostingsEnum[terms.size()];
+        int[][] positions = new int[terms.size()][];
+        int[] numPositions = new int[terms.size()];
+        int currentLeaf = -1;
+        for (ScoreDoc hit : candidates) {
+            int leafIndex = ReaderUtil.subIndex(hit.doc, leaves);
+            LeafReaderContext leaf = leaves.get(leafIndex);
+            if (leafIndex != currentLeaf) {
+                currentLeaf = leafIndex;
+                Terms fieldTerms = leaf.reader().terms(field);
+                TermsEnum termsEnum = fieldTerms == null ? null : fieldTerms.iterator();
+                for (int t = 0; t < terms.size(); t++) {
+                    postings[t] = termsEnum != null && termsEnum.seekExact(terms.get(t).bytes())
+                            ? termsEnum.postings(null, PostingsEnum.POSITIONS) : null;
+                }
+            }
+            int doc = hit.doc - leaf.docBase;
+            for (int t = 0; t < terms.size(); t++) {
+                numPositions[t] = 0;
+                if (postings[t] == null || postings[t].docID() > doc
+                        || (postings[t].docID() < doc && postings[t].advance(doc) != doc)) {
+                    continue;
+                }
+                int freq = postings[t].freq();
+                positions[t] = ArrayUtil.grow(positions[t] == null ? new int[0] : positions[t], freq);
+                for (int i = 0; i < freq; i++) {
+                    positions[t][i] = postings[t].nextPosition();
+                }
+                numPositions[t] = freq;
+            }
+            hit.score += weight * proximityScore(positions, numPositions, idf);
+        }
+
+        Arrays.sort(hits, 0, n, (a, b) -> a.score != b.score ? Float.compare(b.score, a.score) : Integer.compare(a.doc, b.doc));
+        Metrics.record("query.proximity", start);
+        float maxScore = hits.length == 0 ? Float.NaN : Math.max(hits[0].score, firstPassTopDocs.getMaxScore());
+        return new TopDocs(firstPassTopDocs.totalHits, hits, maxScore);
+    }
+
+    private float[] idf(IndexSearcher searcher) throws IOException {
+        CollectionStatistics collectionStats = searcher.collectionStatistics(field);
+        long docCount = collectionStats.docCount() == -1 ? collectionStats.maxDoc() : collectionStats.docCount();
+        float[] idf = new float[terms.size()];
+        for (int t = 0; t < idf.length; t++) {
+            Term term = terms.get(t);
+            TermStatistics termStats = searcher.termStatistics(term, TermContext.build(searcher.getTopReaderContext(), term));
+            idf[t] = (float) Math.log(1 + (docCount - termStats.docFreq() + 0.5D) / (termStats.docFreq() + 0.5D));
+        }
+        return idf;
+    }
+
+    /**
+     * Sums the saturated pair proximities of one document
+     */
+    private float proximityScore(int[][] positions, int[] numPositions, float[] idf) {
+        float score = 0;
+        for (int i = 0; i < numPositions.length; i++) {
+            for (int j = i + 1; j < numPositions.length; j++) {
+                if (numPositions[i] == 0 || numPositions[j] == 0) {
+                    continue;
+                }
+                float acc = pairProximity(positions[i], numPositions[i], positions[j], numPositions[j]);
+                score += Math.min(idf[i], idf[j]) * (k1 + 1) * acc / (k1 + acc);
+            }
+        }
+        return score;
+    }
+
+    /**
+     * Sums 1 / distance<sup>2</sup> over all occurrences of two terms at most window positions apart
+     */
+    private float pairProximity(int[] a, int numA, int[] b, int numB) {
+        float acc = 0;
+        int from = 0;
+        for (int i = 0; i < numA; i++) {
+            while (from < numB && b[from] < a[i] - window) {
+                from++;
+            }
+            for (int j = from; j < numB && b[j] <= a[i] + window; j++) {
+                int distance = Math.abs(b[j] - a[i]);
+                if (distance > 0) {
+                    acc += 1f / (distance * distance);
+                }
+            }
+        }
+        return acc;
+    }
+
+    @Override
+    public Explanation explain(IndexSearcher searcher, Explanation firstPassExplanation, int docID) throws IOException {
+        TopDocs single = rescore(searcher, new TopDocs(1, new ScoreDoc[]{new ScoreDoc(docID, firstPassExplanation.getValue())},
+                firstPassExplanation.getValue()), 1);
+        float proximity = single.scoreDocs[0].score - firstPassExplanation.getValue();
+        return Explanation.match(single.scoreDocs[0].score, "sum of:", firstPassExplanation,
+                Explanation.match(proximity, "weight * term pair proximity, window " + window));
+    }
+}
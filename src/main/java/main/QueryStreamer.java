@@ -0,0 +1,176 @@
+package main;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Replays a query log of any length: queries are read lazily, run by a fixed pool of workers
+ * and their hits written in input order as soon as they are ready. At most {@code maxInFlight}
+ * queries are read ahead of the writer; when that many are pending the reader waits for the
+ * oldest one, so memory stays flat however long the log is and a slow writer slows down reading.
+ * <p>
+ * A log line is either "&lt;id&gt;TAB&lt;query&gt;" or the query alone, numbered by its line;
+ * with format "trec" the log is a TREC topics file whose titles are the queries.
+ */
+public class QueryStreamer {
+    private final IndexSearcher searcher;
+    private final Analyzer analyzer;
+    private final int threads;
+    private final int maxInFlight;
+    private final int hitsPerQuery;
+
+    /**
+     * @param searcher the searcher, shared by all workers
+     * @param analyzer the analyzer queries are parsed with
+     * @param threads the number of workers
+     * @param maxInFlight how many queries may be read but not yet written, at least threads
+     * @param hitsPerQuery the number of hits written per query
+     */
+    public QueryStreamer(IndexSearcher searcher, Analyzer analyzer, int threads, int maxInFlight, int hitsPerQuery) {
+        this.searcher = searcher;
+        this.analyzer = analyzer;
+        this.threads = threads;
+        this.maxInFlight = Math.max(threads, maxInFlight);
+        this.hitsPerQuery = hitsPerQuery;
+    }
+
+    /**
+     * Runs every query of the log and writes its hits
+     * @param log the query log, read line by line
+     * @param format "trec" for a TREC topics file, "tsv" otherwise
+     * @param run receives the hits of each query in log order
+     * @return the number of queries run
+     * @throws IOException
+     */
+    public long stream(BufferedReader log, String format, RunWriter run) throws IOException {
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        ArrayDeque<String> pendingIds = new ArrayDeque<>(maxInFlight);
+        ArrayDeque<Future<Hits>> pending = new ArrayDeque<>(maxInFlight);
+        long queries = 0;
+        try {
+            String[] query;
+            while ((query = next(log, format, queries)) != null) {
+                if (pending.size() == maxInFlight) {
+                    write(pendingIds.poll(), pending.poll(), run);
+                }
+                final String text = query[1];
+                pendingIds.add(query[0]);
+                pending.add(workers.submit(() -> search(text)));
+                queries++;
+            }
+            while (!pending.isEmpty()) {
+                write(pendingIds.poll(), pending.poll(), run);
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+        return queries;
+    }
+
+    private String topicNumber = "default";
+
+    /**
+     * @return the id and text of the next query, null at the end of the log
+     */
+    private String[] next(BufferedReader log, String format, long queries) throws IOException {
+        String line;
+        while ((line = log.readLine()) != null) {
+            if (format.equals("trec")) {
+                if (line.startsWith("<num> Number: ")) {
+                    topicNumber = line.substring(13);
+                } else if (line.startsWith("<title> ")) {
+                    return new String[]{topicNumber, line.substring(7)};
+                }
+            } else if (!line.trim().isEmpty()) {
+                int tab = line.indexOf('\t');
+                return tab < 0 ? new String[]{Long.toString(queries + 1), line}
+                        : new String[]{line.substring(0, tab), line.substring(tab + 1)};
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Runs one query on a worker
+     * @return the hits with their docnos, so the writer does no index lookups
+     */
+    private Hits search(String text) throws IOException {
+        long start = Metrics.start();
+        Query q = parseLogged(text, analyzer);
+        if (q == null) {
+            Metrics.count("stream.unparseable", 1);
+            return new Hits(0);
+        }
+        IndexReader reader = searcher.getIndexReader();
+        ScoreDoc[] hits = searcher.search(q, hitsPerQuery).scoreDocs;
+        Hits result = new Hits(hits.length);
+        for (int i = 0; i < hits.length; i++) {
+            result.docnos[i] = Main.docno(reader, hits[i].doc);
+            result.scores[i] = hits[i].score;
+        }
+        Metrics.record("stream.query", start);
+        return result;
+    }
+
+    /**
+     * Parses a logged query; logged queries are not written in the query syntax, so if the text
+     * does not parse its words are taken literally
+     * @return the query, null if even the escaped text does not parse
+     */
+    static Query parseLogged(String text, Analyzer analyzer) {
+        QueryParser parser = new QueryParser("contents", analyzer);
+        try {
+            return parser.parse(text);
+        } catch (ParseException e) {
+            try {
+                return parser.parse(QueryParser.escape(text));
+            } catch (ParseException escaped) {
+                return null;
+            }
+        }
+    }
+
+    private void write(String id, Future<Hits> hits, RunWriter run) throws IOException {
+        Hits result;
+        try {
+            result = hits.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for query " + id, e);
+        } catch (ExecutionException e) {
+            throw new IOException("Query " + id + " failed", e.getCause());
+        }
+        long start = Metrics.start();
+        run.startTopic(id);
+        for (int i = 0; i < result.docnos.length; i++) {
+            run.add(result.docnos[i], result.scores[i]);
+        }
+        Metrics.record("stream.write", start);
+    }
+
+    /**
+     * The hits of one query, best first.
+     */
+    private static final class Hits {
+        private final String[] docnos;
+        private final float[] scores;
+
+        Hits(int size) {
+            this.docnos = new String[size];
+            this.scores = new float[size];
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package main;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefHash;
+import org.apache.lucene.util.PriorityQueue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * RM3 pseudo-relevance feedback: the top documents of a first pass are taken as relevant,
+ * a relevance model is estimated from their term vectors and its strongest terms are mixed
+ * with the original query for a second pass. The relevance model of each query is cached,
+ * so it is estimated once per searcher.
+ */
+public class RelevanceFeedback {
+    private final IndexSearcher searcher;
+    private final String field;
+    private final int fbDocs;
+    private final int fbTerms;
+    private final float originalQueryWeight;
+    private final Map<String, Query> expandedQueries = new ConcurrentHashMap<>();
+
+    /**
+     * @param searcher the searcher of the first pass, its term vectors are the feedback
+     * @param field the field whose term vectors are read
+     * @param fbDocs the number of top documents taken as relevant
+     * @param fbTerms the number of expansion terms
+     * @param originalQueryWeight weight of the original query against the relevance model, between 0 and 1
+     */
+    public RelevanceFeedback(IndexSearcher searcher, String field, int fbDocs, int fbTerms, float originalQueryWeight) {
+        this.searcher = searcher;
+        this.field = field;
+        this.fbDocs = fbDocs;
+        this.fbTerms = fbTerms;
+        this.originalQueryWeight = originalQueryWeight;
+    }
+
+    /**
+     * Expands the queries of all topics, several topics at a time
+     * @param queries the parsed original query of each topic
+     * @param executor runs the feedback of the topics
+     * @return the expanded query of each topic
+     * @throws IOException
+     */
+    public TreeMap<String, Query> expandAll(Map<String, Query> queries, ExecutorService executor) throws IOException {
+        long start = Metrics.start();
+        Map<String, Future<Query>> futures = new TreeMap<>();
+        for (Map.Entry<String, Query> topic : queries.entrySet()) {
+            futures.put(topic.getKey(), executor.submit(() -> expand(topic.getValue())));
+        }
+        TreeMap<String, Query> expanded = new TreeMap<>();
+        for (Map.Entry<String, Future<Query>> topic : futures.entrySet()) {
+            try {
+                expanded.put(topic.getKey(), topic.getValue().get());
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IOException("Feedback for topic " + topic.getKey() + " failed", e);
+            }
+        }
+        Metrics.record("query.feedback", start);
+        return expanded;
+    }
+
+    /**
+     * @param original a bag-of-words query on the feedback field
+     * @return the original query interpolated with the relevance model of its top documents
+     * @throws IOException
+     */
+    public Query expand(Query original) throws IOException {
+        String key = original.toString();
+        Query expanded = expandedQueries.get(key);
+        if (expanded == null) {
+            expanded = computeExpansion(original);
+            expandedQueries.put(key, expanded);
+        }
+        return expanded;
+    }
+
+    private Query computeExpansion(Query original) throws IOException {
+        ScoreDoc[] feedbackDocs = searcher.search(original, fbDocs).scoreDocs;
+        float scoreSum = 0;
+        for (ScoreDoc doc : feedbackDocs) {
+            scoreSum += doc.score;
+        }
+
+        // relevance model: sum over the feedback documents of P(w|D) * P(D|Q)
+        BytesRefHash terms = new BytesRefHash();
+        float[] weights = new float[16];
+        int[] docTerms = new int[16];
+        long[] docFreqs = new long[16];
+        for (ScoreDoc doc : feedbackDocs) {
+            Terms vector = searcher.getIndexReader().getTermVector(doc.doc, field);
+            if (vector == null || scoreSum <= 0) {
+                continue;
+            }
+            // term vectors do not store their length, so sum it up while collecting the terms
+            int numTerms = 0;
+            long length = 0;
+            TermsEnum termsEnum = vector.iterator();
+            BytesRef term;
+            while ((term = termsEnum.next()) != null) {
+                int id = terms.add(term);
+                if (id < 0) {
+                    id = -id - 1;
+                } else if (id == weights.length) {
+                    weights = ArrayUtil.grow(weights, id + 1);
+                }
+                docTerms = ArrayUtil.grow(docTerms, numTerms + 1);
+                docFreqs = ArrayUtil.grow(docFreqs, numTerms + 1);
+                docTerms[numTerms] = id;
+                docFreqs[numTerms] = Math.max(1, termsEnum.totalTermFreq());
+                length += docFreqs[numTerms];
+                numTerms++;
+            }
+            float docWeight = doc.score / scoreSum / length;
+            for (int i = 0; i < numTerms; i++) {
+                weights[docTerms[i]] += docFreqs[i] * docWeight;
+            }
+        }
+
+        // keep the strongest terms and normalize them to a distribution
+        TermQueue strongest = new TermQueue(Math.max(1, Math.min(fbTerms, terms.size())), weights);
+        for (int id = 0; id < terms.size(); id++) {
+            strongest.insertWithOverflow(id);
+        }
+        float modelSum = 0;
+        for (Integer id : strongest) {
+            modelSum += weights[id];
+        }
+
+        // original query model: relative frequency of each query term
+        List<Term> queryTerms = new ArrayList<>();
+        Main.collectTerms(original, queryTerms);
+        Map<BytesRef, Float> mixture = new TreeMap<>();
+        for (Term term : queryTerms) {
+            if (term.field().equals(field)) {
+                mixture.merge(term.bytes(), originalQueryWeight / queryTerms.size(), Float::sum);
+            }
+        }
+        BytesRef scratch = new BytesRef();
+        for (Integer id : strongest) {
+            if (modelSum > 0) {
+                mixture.merge(BytesRef.deepCopyOf(terms.get(id, scratch)),
+                        (1 - originalQueryWeight) * weights[id] / modelSum, Float::sum);
+            }
+        }
+
+        BooleanQuery.Builder expanded = new BooleanQuery.Builder();
+        for (Map.Entry<BytesRef, Float> term : mixture.entrySet()) {
+            expanded.add(new BoostQuery(new TermQuery(new Term(field, term.getKey())), term.getValue()),
+                    BooleanClause.Occur.SHOULD);
+        }
+        return expanded.build();
+    }
+
+    /**
+     * Min-heap of term ids on their relevance model weight.
+     */
+    private static class TermQueue extends PriorityQueue<Integer> {
+        private final float[] weights;
+
+        TermQueue(int size, float[] weights) {
+            super(size);
+            this.weights = weights;
+        }
+
+        @Override
+        protected boolean lessThan(Integer a, Integer b) {
+            return weights[a] < weights[b];
+        }
+    }
+}
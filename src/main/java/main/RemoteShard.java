@@ -0,0 +1,92 @@
+package main;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Client of a shard served by a {@link ShardServer} in another process.
+ * Requests over the one connection are serialized.
+ */
+public class RemoteShard implements Shard {
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    /**
+     * @param host the host of the shard server
+     * @param port the port of the shard server
+     * @throws IOException if the server cannot be reached
+     */
+    public RemoteShard(String host, int port) throws IOException {
+        this.socket = new Socket(host, port);
+        this.socket.setTcpNoDelay(true);
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    @Override
+    public synchronized GlobalStatistics statistics(String field, Collection<Term> terms) throws IOException {
+        List<Term> fieldTerms = new ArrayList<>();
+        for (Term term : terms) {
+            if (term.field().equals(field)) {
+                fieldTerms.add(term);
+            }
+        }
+        out.writeByte(ShardServer.OP_STATISTICS);
+        out.writeUTF(field);
+        out.writeInt(fieldTerms.size());
+        for (Term term : fieldTerms) {
+            out.writeUTF(term.text());
+        }
+        out.flush();
+        checkResponse();
+        return GlobalStatistics.read(in);
+    }
+
+    @Override
+    public synchronized TopDocs search(String querystr, GlobalStatistics global, int n) throws IOException {
+        out.writeByte(ShardServer.OP_SEARCH);
+        out.writeUTF(querystr);
+        out.writeInt(n);
+        global.write(out);
+        out.flush();
+        checkResponse();
+        int totalHits = in.readInt();
+        float maxScore = in.readFloat();
+        ScoreDoc[] hits = new ScoreDoc[in.readInt()];
+        for (int i = 0; i < hits.length; i++) {
+            hits[i] = new Hit(in.readInt(), in.readFloat(), in.readUTF());
+        }
+        return new TopDocs(totalHits, hits, maxScore);
+    }
+
+    @Override
+    public synchronized boolean refresh() throws IOException {
+        out.writeByte(ShardServer.OP_REFRESH);
+        out.flush();
+        checkResponse();
+        return in.readBoolean();
+    }
+
+    private void checkResponse() throws IOException {
+        if (in.readByte() != ShardServer.OK) {
+            throw new IOException("shard " + socket.getRemoteSocketAddress() + " failed: " + in.readUTF());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
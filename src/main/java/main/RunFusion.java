@@ -0,0 +1,176 @@
+package main;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Fuses the runs of several similarities on one index per topic, in memory, instead of
+ * re-reading their run files: reciprocal rank fusion sums 1 / (k + rank), CombSUM sums the
+ * min-max normalized scores. Scores are accumulated in a primitive map keyed by doc id.
+ */
+public class RunFusion {
+    private final String method;
+    private final int rrfK;
+    private final DocScoreMap fused = new DocScoreMap();
+
+    /**
+     * @param method "rrf" or "combsum"
+     * @param rrfK the rank offset of reciprocal rank fusion
+     */
+    public RunFusion(String method, int rrfK) {
+        if (!method.equals("rrf") && !method.equals("combsum")) {
+            throw new IllegalArgumentException("unknown fusion method: " + method);
+        }
+        this.method = method;
+        this.rrfK = rrfK;
+    }
+
+    /**
+     * Fuses the runs of one topic
+     * @param runs the hits of each run, best first
+     * @param n the number of fused hits to return
+     * @return the fused hits, best first, ties broken towards the smaller doc id
+     */
+    public ScoreDoc[] fuse(ScoreDoc[][] runs, int n) {
+        fused.clear();
+        for (ScoreDoc[] run : runs) {
+            if (run.length == 0) {
+                continue;
+            }
+            if (method.equals("rrf")) {
+                for (int rank = 0; rank < run.length; rank++) {
+                    fused.add(run[rank].doc, 1f / (rrfK + rank + 1));
+                }
+            } else {
+                float max = run[0].score, min = run[run.length - 1].score;
+                float range = max - min;
+                for (ScoreDoc hit : run) {
+                    fused.add(hit.doc, range > 0 ? (hit.score - min) / range : 1f);
+                }
+            }
+        }
+        ScoreDoc[] hits = fused.toScoreDocs();
+        Arrays.sort(hits, (a, b) -> a.score != b.score ? Float.compare(b.score, a.score) : Integer.compare(a.doc, b.doc));
+        return hits.length > n ? Arrays.copyOf(hits, n) : hits;
+    }
+
+    /**
+     * Runs all topics with each similarity, fuses the runs per topic and writes resultsFilefused-&lt;method&gt;
+     * @param topics the topics to run
+     * @param analyzer the analyzer used for the query parser
+     * @param reader the index, searched with every similarity
+     * @param similarities the similarities of the runs, by name
+     * @param fusion fuses the runs
+     * @throws IOException
+     * @throws ParseException
+     */
+    static void searchAndFuse(TreeMap<String, String> topics, Analyzer analyzer, IndexReader reader,
+                              Map<String, Similarity> similarities, RunFusion fusion) throws IOException, ParseException {
+        IndexSearcher[] searchers = new IndexSearcher[similarities.size()];
+        int s = 0;
+        for (Similarity similarity : similarities.values()) {
+            searchers[s++] = new SimilaritySearcherFactory(similarity).newSearcher(reader, null);
+        }
+        String runTag = "fused-" + fusion.method;
+        StringBuilder run = new StringBuilder();
+        long searchNanos = 0, fuseNanos = 0;
+        ScoreDoc[][] runs = new ScoreDoc[searchers.length][];
+        for (Map.Entry<String, String> topic : topics.entrySet()) {
+            Query q = new QueryParser("contents", analyzer).parse(topic.getValue());
+            long start = System.nanoTime();
+            for (int i = 0; i < searchers.length; i++) {
+                runs[i] = searchers[i].search(q, Main.hitsPerPage).scoreDocs;
+            }
+            searchNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            ScoreDoc[] hits = fusion.fuse(runs, Main.hitsPerPage);
+            fuseNanos += System.nanoTime() - start;
+            for (int i = 0; i < hits.length; i++) {
+                run.append(Main.resultLine(topic.getKey(), Main.docno(reader, hits[i].doc), i + 1, hits[i].score, runTag)).append('\n');
+            }
+        }
+        FileUtils.writeStringToFile(new File("resultsFile" + runTag), run.toString(), Charset.defaultCharset(), false);
+        Metrics.recordNanos("fusion.fuse", fuseNanos);
+        if (Main.debugOutput) {
+            int n = Math.max(1, topics.size());
+            System.out.printf("Fused %s runs with %s: retrieval %.3f ms/query, fusion %.3f ms/query%n",
+                    similarities.keySet(), fusion.method, searchNanos / 1e6 / n, fuseNanos / 1e6 / n);
+        }
+    }
+
+    /**
+     * Open-addressing map from doc id to a summed score, reused across topics.
+     */
+    static final class DocScoreMap {
+        private int[] docs = new int[0];
+        private float[] scores = new float[0];
+        private int size;
+        private int mask;
+
+        DocScoreMap() {
+            resize(4096);
+        }
+
+        void clear() {
+            Arrays.fill(docs, -1);
+            size = 0;
+        }
+
+        void add(int doc, float score) {
+            int slot = (doc * 0x9E3779B9) >>> 7 & mask;
+            while (docs[slot] != -1 && docs[slot] != doc) {
+                slot = (slot + 1) & mask;
+            }
+            if (docs[slot] == -1) {
+                docs[slot] = doc;
+                scores[slot] = score;
+                if (++size > docs.length / 2) {
+                    resize(docs.length * 2);
+                }
+            } else {
+                scores[slot] += score;
+            }
+        }
+
+        ScoreDoc[] toScoreDocs() {
+            ScoreDoc[] hits = new ScoreDoc[size];
+            int upto = 0;
+            for (int slot = 0; slot < docs.length; slot++) {
+                if (docs[slot] != -1) {
+                    hits[upto++] = new ScoreDoc(docs[slot], scores[slot]);
+                }
+            }
+            return hits;
+        }
+
+        private void resize(int capacity) {
+            int[] oldDocs = docs;
+            float[] oldScores = scores;
+            docs = new int[capacity];
+            scores = new float[capacity];
+            mask = capacity - 1;
+            Arrays.fill(docs, -1);
+            size = 0;
+            for (int slot = 0; slot < oldDocs.length; slot++) {
+                if (oldDocs[slot] != -1) {
+                    add(oldDocs[slot], oldScores[slot]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package main;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Query time and MAP of one configuration, as the comparisons of {@link IndexPruner} and
+ * {@link CascadeRanker} report them: the queries run twice and the second round is measured,
+ * so configurations measured one after another all see warm caches. The hits of that round
+ * can be written as a run in the configured runFormat.
+ */
+class RunMeasurement {
+
+    /**
+     * Searches one query of the measured configuration
+     */
+    interface Search {
+        TopDocs search(Query query, int n) throws IOException;
+    }
+
+    private final long nanos;
+    private final double averagePrecision;
+    private final int queries;
+    private final boolean evaluated;
+
+    private RunMeasurement(long nanos, double averagePrecision, int queries, boolean evaluated) {
+        this.nanos = nanos;
+        this.averagePrecision = averagePrecision;
+        this.queries = queries;
+        this.evaluated = evaluated;
+    }
+
+    /**
+     * @param queries the queries by topic
+     * @param reader the reader the hits are found in
+     * @param search the configuration
+     * @param evaluation the qrels, or null to skip MAP
+     * @param runTag run tag of the run written to resultsFile&lt;runTag&gt;, or null for no run
+     * @return the measurement of the second round
+     * @throws IOException
+     */
+    static RunMeasurement measure(Map<String, Query> queries, IndexReader reader, Search search,
+                                  TrecEvaluation evaluation, String runTag) throws IOException {
+        round(queries, reader, search, evaluation, null);
+        return round(queries, reader, search, evaluation, runTag);
+    }
+
+    private static RunMeasurement round(Map<String, Query> queries, IndexReader reader, Search search,
+                                        TrecEvaluation evaluation, String runTag) throws IOException {
+        DocnoLookup lookup = new DocnoLookup(reader);
+        long nanos = 0;
+        double ap = 0;
+        try (RunWriter run = runTag == null ? null
+                : RunWriter.open("resultsFile" + runTag, Main.getProperty("runFormat", "trec"), runTag)) {
+            for (Map.Entry<String, Query> topic : queries.entrySet()) {
+                long start = System.nanoTime();
+                TopDocs docs = search.search(topic.getValue(), Main.hitsPerPage);
+                nanos += System.nanoTime() - start;
+                if (run != null) {
+                    run.startTopic(topic.getKey());
+                }
+                String[] docnos = new String[docs.scoreDocs.length];
+                for (int i = 0; i < docnos.length; i++) {
+                    ScoreDoc hit = docs.scoreDocs[i];
+                    BytesRef docno = lookup.get(hit.doc);
+                    if (run != null) {
+                        run.add(docno, hit.score);
+                    }
+                    if (evaluation != null) {
+                        docnos[i] = docno.utf8ToString();
+                    }
+                }
+                if (evaluation != null) {
+                    ap += evaluation.averagePrecision(topic.getKey(), docnos);
+                }
+            }
+        }
+        return new RunMeasurement(nanos, ap, queries.size(), evaluation != null);
+    }
+
+    /**
+     * @return the mean query time in milliseconds
+     */
+    double msPerQuery() {
+        return nanos / 1e6 / Math.max(1, queries);
+    }
+
+    /**
+     * @return the mean average precision with four decimals, "-" without qrels
+     */
+    String map() {
+        return evaluated ? String.format("%.4f", averagePrecision / Math.max(1, queries)) : "-";
+    }
+}
@@ -0,0 +1,50 @@
+package main;
+
+import org.apache.lucene.util.BytesRef;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Writes a run topic by topic, hits in rank order.
+ */
+public interface RunWriter extends Closeable {
+
+    /**
+     * Starts the hits of the next topic
+     * @param topic the topic number
+     * @throws IOException
+     */
+    void startTopic(String topic) throws IOException;
+
+    /**
+     * Adds the next hit of the current topic, its rank is one more than the previous hit's
+     * @param docno the TREC document number
+     * @param score the score of the document
+     * @throws IOException
+     */
+    void add(String docno, float score) throws IOException;
+
+    /**
+     * Adds the next hit of the current topic like {@link #add(String, float)}, without decoding the docno
+     * @param docno the TREC document number as UTF-8 bytes, e.g. from a {@link DocnoLookup}
+     * @param score the score of the document
+     * @throws IOException
+     */
+    void add(BytesRef docno, float score) throws IOException;
+
+    /**
+     * @param name the file name without extension, e.g. resultsFileVA
+     * @param format "binary" for a {@link BinaryRunWriter} run in name.bin, a TREC text run in name otherwise
+     * @param runTag the similarity name used in the run tag
+     * @return the writer, replacing any previous run of that name
+     * @throws IOException
+     */
+    static RunWriter open(String name, String format, String runTag) throws IOException {
+        if (format.equals("binary")) {
+            return new BinaryRunWriter(new File(name + BinaryRunWriter.EXTENSION), runTag);
+        }
+        return new TrecRunWriter(new File(name), runTag);
+    }
+}
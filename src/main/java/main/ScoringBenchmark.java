@@ -0,0 +1,157 @@
+package main;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.store.RAMDirectory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares scoring postings one {@code score(doc, freq)} call at a time with the
+ * {@link BulkSimScorer} path, block by block, for each similarity. Scores are reported per posting. Only compiled with the benchmark profile
+ * ({@code mvn -Pbenchmark package}); run with {@code java -cp <classpath> org.openjdk.jmh.Main ScoringBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScoringBenchmark {
+    /**
+     * documents in the synthetic segment, every one of them is scored
+     */
+    static final int NUM_DOCS = 20000;
+
+    @Param({"ORIGINAL", "L", "VA"})
+    public String similarity;
+
+    /**
+     * postings per block, like the blocks of the postings format
+     */
+    @Param({"128"})
+    public int blockSize;
+
+    private RAMDirectory directory;
+    private DirectoryReader reader;
+    private Similarity.SimScorer scorer;
+    private int[][] docs;
+    private float[][] freqs;
+    private float[] scores;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Similarity sim = similarity.equals("VA") ? new BM25VASimilarity()
+                : similarity.equals("L") ? new BM25LSimilarity() : new BM25SimilarityOriginal();
+        directory = new RAMDirectory();
+        IndexWriterConfig config = new IndexWriterConfig(new StandardAnalyzer());
+        config.setSimilarity(sim);
+        FieldType type = new FieldType();
+        type.setIndexOptions(IndexOptions.DOCS_AND_FREQS);
+        type.setTokenized(true);
+        type.setStoreTermVectors(true);
+        type.freeze();
+        Random random = new Random(42);
+        try (IndexWriter writer = new IndexWriter(directory, config)) {
+            for (int i = 0; i < NUM_DOCS; i++) {
+                StringBuilder text = new StringBuilder("common");
+                int length = 20 + random.nextInt(500);
+                for (int j = 0; j < length; j++) {
+                    text.append(" w").append(random.nextInt(5000));
+                }
+                Document doc = new Document();
+                doc.add(new Field("contents", text.toString(), type));
+                writer.addDocument(doc);
+            }
+            writer.forceMerge(1);
+        }
+        reader = DirectoryReader.open(directory);
+        IndexSearcher searcher = new IndexSearcher(reader);
+        searcher.setSimilarity(sim);
+        Term term = new Term("contents", "common");
+        Similarity.SimWeight weight = sim.computeWeight(searcher.collectionStatistics("contents"),
+                searcher.termStatistics(term, TermContext.build(reader.getContext(), term)));
+        weight.normalize(1f, 1f);
+        LeafReaderContext leaf = reader.leaves().get(0);
+        scorer = sim.simScorer(weight, leaf);
+
+        int numBlocks = (NUM_DOCS + blockSize - 1) / blockSize;
+        docs = new int[numBlocks][];
+        freqs = new float[numBlocks][];
+        scores = new float[blockSize];
+        for (int block = 0; block < numBlocks; block++) {
+            int n = Math.min(blockSize, NUM_DOCS - block * blockSize);
+            docs[block] = new int[n];
+            freqs[block] = new float[n];
+            for (int i = 0; i < n; i++) {
+                docs[block][i] = block * blockSize + i;
+                freqs[block][i] = 1 + random.nextInt(10);
+            }
+        }
+        // both paths must agree before their speed is worth comparing
+        for (int block = 0; block < numBlocks; block++) {
+            ((BulkSimScorer) scorer).score(docs[block], freqs[block], scores, docs[block].length);
+            for (int i = 0; i < docs[block].length; i++) {
+                if (Float.floatToIntBits(scores[i]) != Float.floatToIntBits(scorer.score(docs[block][i], freqs[block][i]))) {
+                    throw new IllegalStateException(similarity + ": bulk score differs for doc " + docs[block][i]);
+                }
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        reader.close();
+        directory.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_DOCS)
+    public float[] perDoc() {
+        for (int block = 0; block < docs.length; block++) {
+            int[] blockDocs = docs[block];
+            float[] blockFreqs = freqs[block];
+            for (int i = 0; i < blockDocs.length; i++) {
+                scores[i] = scorer.score(blockDocs[i], blockFreqs[i]);
+            }
+        }
+        return scores;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_DOCS)
+    public float[] bulk() {
+        BulkSimScorer bulk = (BulkSimScorer) scorer;
+        for (int block = 0; block < docs.length; block++) {
+            bulk.score(docs[block], freqs[block], scores, docs[block].length);
+        }
+        return scores;
+    }
+}
@@ -0,0 +1,187 @@
+package main;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resident search service keeping the searcher, the similarity's per-segment statistics
+ * and the parsed queries warm across requests. Requests are single lines:
+ * <pre>
+ * QUERY &lt;topic&gt; &lt;query text&gt;   run one query
+ * TOPICS &lt;path&gt;                 run all topics of a TREC topics file
+ * REFRESH                       reopen the reader if the index changed
+ * QUIT                          end the session
+ * </pre>
+ * Results are returned as TREC run lines, followed by a line "END".
+ * Errors are returned as a single line starting with "ERROR".
+ */
+public class SearchDaemon implements Closeable {
+    private final ReferenceManager<IndexSearcher> searcherManager;
+    private final Analyzer analyzer;
+    private final String runTag;
+    static final int MAX_COMPILED_QUERIES = 1024;
+    /** parsed queries by their text, the least recently used are dropped beyond {@link #MAX_COMPILED_QUERIES} */
+    private final Map<String, Query> compiledQueries = Collections.synchronizedMap(
+            new LinkedHashMap<String, Query>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Query> eldest) {
+                    return size() > MAX_COMPILED_QUERIES;
+                }
+            });
+    private final ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor();
+
+    /**
+     * @param searcherManager provides the current searcher, refreshed periodically
+     * @param analyzer the analyzer queries are parsed with
+     * @param runTag the similarity name used in the run tag
+     * @param refreshSeconds how often to check for index changes, 0 to only refresh on request
+     */
+    public SearchDaemon(ReferenceManager<IndexSearcher> searcherManager, Analyzer analyzer, String runTag, long refreshSeconds) {
+        this.searcherManager = searcherManager;
+        this.analyzer = analyzer;
+        this.runTag = runTag;
+        if (refreshSeconds > 0) {
+            refresher.scheduleWithFixedDelay(() -> {
+                try {
+                    searcherManager.maybeRefresh();
+                } catch (IOException e) {
+                    System.err.println("Refreshing the searcher failed: " + e);
+                }
+            }, refreshSeconds, refreshSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Serves requests on a local port, one thread per connection, until the process is stopped.
+     * @param port the port to listen on, bound to the loopback address only
+     * @throws IOException
+     */
+    public void serve(int port) throws IOException {
+        ExecutorService sessions = Executors.newCachedThreadPool();
+        try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            if (Main.debugOutput) {
+                System.out.println("Search daemon listening on " + server.getLocalSocketAddress());
+            }
+            while (true) {
+                Socket socket = server.accept();
+                sessions.execute(() -> {
+                    try (Socket s = socket) {
+                        serve(new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8)),
+                                new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8)));
+                    } catch (IOException e) {
+                        System.err.println("Session failed: " + e);
+                    }
+                });
+            }
+        } finally {
+            sessions.shutdownNow();
+        }
+    }
+
+    /**
+     * Serves requests of one session until QUIT or the end of the input
+     * @param in the requests
+     * @param out the responses, flushed after every request
+     * @throws IOException
+     */
+    public void serve(BufferedReader in, Writer out) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] request = line.split("\\s+", 3);
+            String command = request[0].toUpperCase();
+            try {
+                if (command.equals("QUIT")) {
+                    break;
+                } else if (command.equals("QUERY") && request.length == 3) {
+                    search(request[1], request[2], out);
+                } else if (command.equals("TOPICS") && request.length >= 2) {
+                    TreeMap<String, String> topics = Main.setUpTopicMap(line.substring(request[0].length()).trim());
+                    for (Map.Entry<String, String> topic : topics.entrySet()) {
+                        search(topic.getKey(), topic.getValue(), out);
+                    }
+                } else if (command.equals("REFRESH")) {
+                    searcherManager.maybeRefreshBlocking();
+                } else {
+                    out.write("ERROR unknown request: " + line + "\n");
+                    out.flush();
+                    continue;
+                }
+                out.write("END\n");
+            } catch (ParseException | IOException | RuntimeException e) {
+                // a failed request (e.g. too many clauses) must not end the session
+                out.write("ERROR " + errorMessage(e) + "\n");
+            }
+            out.flush();
+        }
+        out.flush();
+    }
+
+    /**
+     * @param e the failure of a request
+     * @return its message on a single line, as the protocol is line based
+     */
+    static String errorMessage(Exception e) {
+        String message = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+        return message.replaceAll("[\\r\\n]+", " ").trim();
+    }
+
+    private void search(String topic, String querystr, Writer out) throws ParseException, IOException {
+        Query q = compiledQueries.get(querystr);
+        if (q == null) {
+            long start = Metrics.start();
+            q = new QueryParser("contents", analyzer).parse(querystr);
+            Metrics.record("query.analyze", start);
+            compiledQueries.put(querystr, q);
+        }
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+            TopDocs docs = searcher.search(q, Main.hitsPerPage);
+            ScoreDoc[] hits = docs.scoreDocs;
+            for (int i = 0; i < hits.length; i++) {
+                String docno = Main.docno(searcher.getIndexReader(), hits[i].doc);
+                out.write(Main.resultLine(topic, docno, i + 1, hits[i].score, runTag));
+                out.write('\n');
+            }
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    /**
+     * Stops the periodic refresh, the searcher manager stays open.
+     */
+    @Override
+    public void close() {
+        refresher.shutdownNow();
+    }
+}
@@ -0,0 +1,101 @@
+package main;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.similarities.Similarity;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Brings a freshly opened searcher to steady-state speed before the first real query:
+ * reads the norms and docno doc values of every new segment, computes the BM25VA statistics
+ * of the segment and optionally runs a set of warmup queries, resolving their docnos.
+ */
+public class SearcherWarmer {
+    private final String field;
+    private final Analyzer analyzer;
+    private final Collection<String> queries;
+
+    /**
+     * @param field the field that is searched
+     * @param analyzer the analyzer the warmup queries are parsed with
+     * @param queries the warmup queries, run only when a searcher is opened for the first time
+     */
+    public SearcherWarmer(String field, Analyzer analyzer, Collection<String> queries) {
+        this.field = field;
+        this.analyzer = analyzer;
+        this.queries = queries == null ? Collections.emptyList() : queries;
+    }
+
+    /**
+     * Warms the segments of the searcher that were not part of the previous reader
+     * @param searcher the new searcher, with its similarity already set
+     * @param previousReader the reader the searcher replaces, null on the first open
+     * @throws IOException
+     */
+    public void warm(IndexSearcher searcher, IndexReader previousReader) throws IOException {
+        long start = System.nanoTime();
+        Set<Object> warmCores = new HashSet<>();
+        if (previousReader != null) {
+            for (LeafReaderContext leaf : previousReader.leaves()) {
+                warmCores.add(leaf.reader().getCoreCacheKey());
+            }
+        }
+        Similarity similarity = searcher.getSimilarity(true);
+        int warmed = 0;
+        for (LeafReaderContext leaf : searcher.getIndexReader().leaves()) {
+            LeafReader reader = leaf.reader();
+            if (warmCores.contains(reader.getCoreCacheKey())) {
+                continue;
+            }
+            NumericDocValues norms = reader.getNormValues(field);
+            SortedDocValues docnos = reader.getSortedDocValues("docno");
+            for (int doc = 0; doc < reader.maxDoc(); doc++) {
+                if (norms != null) {
+                    norms.get(doc);
+                }
+                if (docnos != null) {
+                    docnos.getOrd(doc);
+                }
+            }
+            if (docnos != null) {
+                for (int ord = 0; ord < docnos.getValueCount(); ord++) {
+                    docnos.lookupOrd(ord);
+                }
+            }
+            if (similarity instanceof BM25VASimilarity) {
+                ((BM25VASimilarity) similarity).warmSegment(reader, field);
+            }
+            warmed++;
+        }
+        if (previousReader == null) {
+            for (String querystr : queries) {
+                try {
+                    for (ScoreDoc hit : searcher.search(new QueryParser(field, analyzer).parse(querystr), Main.hitsPerPage).scoreDocs) {
+                        Main.docno(searcher.getIndexReader(), hit.doc);
+                    }
+                } catch (ParseException e) {
+                    System.err.println("Skipping warmup query " + querystr + ": " + e.getMessage());
+                }
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        Metrics.recordNanos("search.warmup", nanos);
+        if (Main.debugOutput && (warmed > 0 || previousReader == null)) {
+            System.err.println("Warmed " + warmed + " segments" + (previousReader == null ? " and " + queries.size() + " queries" : "")
+                    + " in " + nanos / 1000000 + " ms");
+        }
+    }
+}
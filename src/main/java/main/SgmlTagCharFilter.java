@@ -0,0 +1,76 @@
+package main;
+
+import org.apache.lucene.analysis.charfilter.BaseCharFilter;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Replaces every SGML tag of a TREC document, such as &lt;DOCNO&gt; or &lt;/TEXT&gt;, with a single
+ * space, so tag names are not tokenized and text glued to a tag still forms its own token.
+ * Only a '&lt;' followed by a letter, '/' or '!' starts a tag, any other '&lt;' is kept as text.
+ * Unlike the full HTML stripping filter it neither decodes entities nor handles scripts or
+ * comments, which TREC collections do not need, and it streams through a fixed buffer.
+ * Offsets of the remaining text still point into the original document.
+ */
+final class SgmlTagCharFilter extends BaseCharFilter {
+    private final char[] buffer = new char[4096];
+    private int bufferLength;
+    private int bufferPos;
+    private int inputOffset;
+    private int outputOffset;
+    private boolean sawLessThan;
+    private boolean inTag;
+
+    SgmlTagCharFilter(Reader in) {
+        super(in);
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        int written = 0;
+        while (written < len) {
+            if (bufferPos == bufferLength) {
+                bufferLength = input.read(buffer, 0, buffer.length);
+                bufferPos = 0;
+                if (bufferLength <= 0) {
+                    bufferLength = 0;
+                    if (sawLessThan) {
+                        // a '<' at the very end is text
+                        sawLessThan = false;
+                        cbuf[off + written++] = '<';
+                        outputOffset++;
+                    }
+                    break;
+                }
+            }
+            char c = buffer[bufferPos++];
+            inputOffset++;
+            if (inTag) {
+                if (c == '>') {
+                    inTag = false;
+                    cbuf[off + written++] = ' ';
+                    outputOffset++;
+                    addOffCorrectMap(outputOffset, inputOffset - outputOffset);
+                }
+            } else if (sawLessThan) {
+                sawLessThan = false;
+                if (Character.isLetter(c) || c == '/' || c == '!') {
+                    inTag = true;
+                } else {
+                    // not a tag: emit the '<' and look at this character again
+                    cbuf[off + written++] = '<';
+                    outputOffset++;
+                    bufferPos--;
+                    inputOffset--;
+                }
+            } else if (c == '<') {
+                sawLessThan = true;
+            } else {
+                cbuf[off + written++] = c;
+                outputOffset++;
+            }
+        }
+        return written == 0 && len > 0 ? -1 : written;
+    }
+}
@@ -0,0 +1,57 @@
+package main;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * One partition of a sharded index, either in this process ({@link LocalShard})
+ * or served by another process ({@link RemoteShard}).
+ */
+public interface Shard extends Closeable {
+
+    /**
+     * Computes the statistics of this shard alone
+     * @param field the field the statistics are for
+     * @param terms the terms to include term statistics for
+     * @return the local statistics, to be summed over all shards
+     * @throws IOException
+     */
+    GlobalStatistics statistics(String field, Collection<Term> terms) throws IOException;
+
+    /**
+     * Searches this shard, scoring with statistics of the whole collection
+     * @param querystr the query text, parsed by the shard
+     * @param global the statistics summed over all shards
+     * @param n the number of hits to return
+     * @return the top hits with shard-local doc ids, each a {@link Hit} carrying its docno
+     * @throws IOException
+     * @throws ParseException if the query text is invalid
+     */
+    TopDocs search(String querystr, GlobalStatistics global, int n) throws IOException, ParseException;
+
+    /**
+     * Reopens the shard if its index changed; searches already running finish on the old one
+     * @return whether the index changed, so statistics gathered before are stale
+     * @throws IOException
+     */
+    boolean refresh() throws IOException;
+
+    /**
+     * A hit that carries the TREC docno of its document, so that writing a run needs no
+     * further request to the shard per hit.
+     */
+    class Hit extends ScoreDoc {
+        public final String docno;
+
+        public Hit(int doc, float score, String docno) {
+            super(doc, score);
+            this.docno = docno;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package main;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.FSDirectory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Serves one {@link LocalShard} to {@link RemoteShard} clients in other processes.
+ * Start with <code>java main.ShardServer &lt;shard index dir&gt; &lt;port&gt;</code> from the
+ * folder holding config.properties, which provides the similarity.
+ * <p>
+ * Every request is an operation byte followed by its arguments; every response is
+ * {@link #OK} followed by the result, or {@link #ERROR} followed by a message.
+ */
+public class ShardServer {
+    static final byte OP_STATISTICS = 1;
+    static final byte OP_SEARCH = 2;
+    static final byte OP_REFRESH = 4;
+    static final byte OK = 0;
+    static final byte ERROR = 1;
+
+    private final Shard shard;
+
+    public ShardServer(Shard shard) {
+        this.shard = shard;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: java main.ShardServer <shard index dir> <port>");
+            System.exit(1);
+        }
+        Main.loadProperties();
+        Shard shard = new LocalShard(FSDirectory.open(new File(args[0]).toPath()), Main.newAnalyzer(), Main.getSimilarity());
+        new ShardServer(shard).serve(Integer.parseInt(args[1]));
+    }
+
+    /**
+     * Serves clients on a local port, one thread per connection, until the process is stopped
+     * @param port the port to listen on, bound to the loopback address only
+     * @throws IOException
+     */
+    public void serve(int port) throws IOException {
+        try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            System.err.println("Shard listening on " + server.getLocalSocketAddress());
+            while (true) {
+                Socket socket = server.accept();
+                Thread session = new Thread(() -> {
+                    try (Socket s = socket) {
+                        serve(new DataInputStream(new BufferedInputStream(s.getInputStream())),
+                                new DataOutputStream(new BufferedOutputStream(s.getOutputStream())));
+                    } catch (IOException e) {
+                        System.err.println("Session failed: " + e);
+                    }
+                });
+                session.setDaemon(true);
+                session.start();
+            }
+        }
+    }
+
+    private void serve(DataInputStream in, DataOutputStream out) throws IOException {
+        while (true) {
+            byte op;
+            try {
+                op = in.readByte();
+            } catch (EOFException e) {
+                return;
+            }
+            try {
+                switch (op) {
+                    case OP_STATISTICS: {
+                        String field = in.readUTF();
+                        int numTerms = in.readInt();
+                        List<Term> terms = new ArrayList<>(numTerms);
+                        for (int i = 0; i < numTerms; i++) {
+                            terms.add(new Term(field, in.readUTF()));
+                        }
+                        GlobalStatistics stats = shard.statistics(field, terms);
+                        out.writeByte(OK);
+                        stats.write(out);
+                        break;
+                    }
+                    case OP_SEARCH: {
+                        String querystr = in.readUTF();
+                        int n = in.readInt();
+                        GlobalStatistics global = GlobalStatistics.read(in);
+                        TopDocs docs = shard.search(querystr, global, n);
+                        out.writeByte(OK);
+                        out.writeInt(docs.totalHits);
+                        out.writeFloat(docs.getMaxScore());
+                        out.writeInt(docs.scoreDocs.length);
+                        for (ScoreDoc hit : docs.scoreDocs) {
+                            out.writeInt(hit.doc);
+                            out.writeFloat(hit.score);
+                            out.writeUTF(((Shard.Hit) hit).docno);
+                        }
+                        break;
+                    }
+                    case OP_REFRESH: {
+                        boolean changed = shard.refresh();
+                        out.writeByte(OK);
+                        out.writeBoolean(changed);
+                        break;
+                    }
+                    default:
+                        throw new IOException("unknown operation " + op);
+                }
+            } catch (ParseException | IOException | RuntimeException e) {
+                out.writeByte(ERROR);
+                out.writeUTF(String.valueOf(e.getMessage()));
+            }
+            out.flush();
+        }
+    }
+}
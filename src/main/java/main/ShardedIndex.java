@@ -0,0 +1,270 @@
+package main;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.commons.io.FileUtils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * An index hash-partitioned by docno into several shards. The statistics of the query terms
+ * are summed over all shards by a {@link StatisticsExchange}, then all shards are searched
+ * concurrently with them, so scores equal those of a single index, and the top hits are merged.
+ */
+public class ShardedIndex implements Closeable {
+    private final List<Shard> shards;
+    private final Analyzer analyzer;
+    private final ExecutorService executor;
+    private final StatisticsExchange statistics;
+
+    /**
+     * @param shards the shards, in the order they were built
+     * @param analyzer the analyzer used to find the query terms
+     */
+    public ShardedIndex(List<Shard> shards, Analyzer analyzer) {
+        this.shards = shards;
+        this.analyzer = analyzer;
+        this.executor = Executors.newFixedThreadPool(shards.size());
+        this.statistics = new StatisticsExchange(shards, executor, "contents");
+    }
+
+    /**
+     * @return the shard a document belongs to
+     */
+    static int shardOf(String docno, int numShards) {
+        return docno == null ? 0 : (docno.hashCode() & 0x7fffffff) % numShards;
+    }
+
+    /**
+     * @return the index directory of a shard
+     */
+    static File shardDir(File shardsRoot, int shard) {
+        return new File(shardsRoot, "shard" + shard);
+    }
+
+    /**
+     * Builds all shards at once, parsing the collection files in parallel
+     * @param docDir the TREC collection
+     * @param shardsRoot the directory the shard indexes are created in
+     * @param numShards the number of shards
+     * @param analyzer the analyzer to be used to preprocess the data
+     * @param bm25 the similarity function to be used
+     * @throws IOException
+     */
+    public static void build(File docDir, File shardsRoot, int numShards, Analyzer analyzer, Similarity bm25) throws IOException {
+        long start = System.nanoTime();
+        Directory[] dirs = new Directory[numShards];
+        IndexWriter[] writers = new IndexWriter[numShards];
+        for (int i = 0; i < numShards; i++) {
+            dirs[i] = FSDirectory.open(shardDir(shardsRoot, i).toPath());
+            writers[i] = new IndexWriter(dirs[i], Main.bulkLoadConfig(Main.newIndexWriterConfig(analyzer, bm25)));
+        }
+        List<File> files = new ArrayList<>();
+        listFiles(docDir, files);
+        ExecutorService parsers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            List<Future<Integer>> parsed = new ArrayList<>();
+            for (File file : files) {
+                parsed.add(parsers.submit(() -> {
+                    int count = 0;
+                    try (TrecDocIterator docs = new TrecDocIterator(file)) {
+                        while (docs.hasNext()) {
+                            Document doc = docs.next();
+                            if (doc != null && doc.getField("contents") != null) {
+                                writers[shardOf(doc.get("docno"), numShards)].addDocument(doc);
+                                count++;
+                            }
+                        }
+                    }
+                    return count;
+                }));
+            }
+            int count = 0;
+            for (Future<Integer> future : parsed) {
+                try {
+                    count += future.get();
+                } catch (InterruptedException | ExecutionException e) {
+                    throw new IOException("Building the shards failed", e);
+                }
+            }
+            Metrics.count("index.docs", count);
+            for (IndexWriter writer : writers) {
+                Main.finishBulkLoad(writer, start);
+            }
+        } finally {
+            parsers.shutdown();
+            for (IndexWriter writer : writers) {
+                writer.close();
+            }
+            for (Directory dir : dirs) {
+                dir.close();
+            }
+        }
+    }
+
+    private static void listFiles(File file, List<File> files) {
+        if (!file.canRead()) {
+            return;
+        }
+        if (file.isDirectory()) {
+            String[] names = file.list();
+            if (names != null) {
+                for (String name : names) {
+                    listFiles(new File(file, name), files);
+                }
+            }
+        } else {
+            files.add(file);
+        }
+    }
+
+    /**
+     * Reopens the shards whose index changed and drops the cached statistics if any did
+     * @return whether any shard changed
+     * @throws IOException
+     */
+    public boolean refresh() throws IOException {
+        List<Future<Boolean>> refreshed = new ArrayList<>();
+        for (Shard shard : shards) {
+            refreshed.add(executor.submit(shard::refresh));
+        }
+        boolean changed = false;
+        for (Future<Boolean> future : refreshed) {
+            try {
+                changed |= future.get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IOException("Refreshing the shards failed", e);
+            }
+        }
+        if (changed) {
+            statistics.invalidate();
+        }
+        return changed;
+    }
+
+    /**
+     * Gathers the statistics of all terms of a query batch from the shards in one exchange,
+     * so the searches of the batch do not have to contact the shards for statistics. Shards
+     * whose index changed since the last batch are reopened first.
+     * @param querystrs the query texts of the batch
+     * @throws IOException
+     * @throws ParseException
+     */
+    public void prepareBatch(Collection<String> querystrs) throws IOException, ParseException {
+        refresh();
+        List<Term> terms = new ArrayList<>();
+        for (String querystr : querystrs) {
+            Main.collectTerms(new QueryParser("contents", analyzer).parse(querystr), terms);
+        }
+        statistics.gather(terms);
+    }
+
+    /**
+     * Searches all shards
+     * @param querystr the query text
+     * @param n the number of hits to return
+     * @return the merged hits, {@link ScoreDoc#shardIndex} tells the shard of each hit
+     * @throws IOException
+     * @throws ParseException
+     */
+    public TopDocs search(String querystr, int n) throws IOException, ParseException {
+        Query q = new QueryParser("contents", analyzer).parse(querystr);
+        List<Term> terms = new ArrayList<>();
+        Main.collectTerms(q, terms);
+
+        GlobalStatistics global = statistics.gather(terms);
+
+        long start = Metrics.start();
+        List<Future<TopDocs>> shardHits = new ArrayList<>();
+        for (Shard shard : shards) {
+            shardHits.add(executor.submit(() -> shard.search(querystr, global, n)));
+        }
+        TopDocs[] hits = new TopDocs[shards.size()];
+        for (int i = 0; i < hits.length; i++) {
+            hits[i] = get(shardHits.get(i));
+        }
+        Metrics.record("shards.search", start);
+        return TopDocs.merge(n, hits);
+    }
+
+    /**
+     * @return the docno of a hit returned by {@link #search}
+     */
+    public String docno(ScoreDoc hit) {
+        return ((Shard.Hit) hit).docno;
+    }
+
+    /**
+     * Runs all topics against the shards and writes the run file
+     * @param topics the topics we want to use as search terms
+     * @param runTag the suffix of the result file and run tag
+     * @throws IOException
+     * @throws ParseException
+     */
+    public void searchForTopics(TreeMap<String, String> topics, String runTag) throws IOException, ParseException {
+        File file = new File("resultsFile" + runTag);
+        file.delete();
+        long start = System.nanoTime();
+        prepareBatch(topics.values());
+        for (String key : topics.keySet()) {
+            ScoreDoc[] hits = search(topics.get(key), Main.hitsPerPage).scoreDocs;
+            StringBuilder run = new StringBuilder();
+            for (int i = 0; i < hits.length; i++) {
+                run.append(Main.resultLine(key, docno(hits[i]), i + 1, hits[i].score, runTag)).append('\n');
+            }
+            FileUtils.writeStringToFile(file, run.toString(), Charset.defaultCharset(), true);
+        }
+        if (Main.debugOutput) {
+            System.out.println("Searched " + topics.size() + " topics on " + shards.size() + " shards in "
+                    + (System.nanoTime() - start) / 1000000 + " ms");
+        }
+    }
+
+    private static <T> T get(Future<T> future) throws IOException, ParseException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof ParseException) {
+                throw (ParseException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        executor.shutdown();
+        for (Shard shard : shards) {
+            shard.close();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package main;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.similarities.Similarity;
+
+import java.io.IOException;
+
+/**
+ * Creates searchers using one shared similarity instance, so per-segment state
+ * cached by the similarity (e.g. the BM25VA statistics) survives reopening the reader.
+ * Optionally warms each searcher before it is handed out.
+ */
+public class SimilaritySearcherFactory extends SearcherFactory {
+    private final Similarity similarity;
+    private final SearcherWarmer warmer;
+
+    /**
+     * @param similarity the similarity of all searchers, null for Lucene's default
+     */
+    public SimilaritySearcherFactory(Similarity similarity) {
+        this(similarity, null);
+    }
+
+    /**
+     * @param similarity the similarity of all searchers, null for Lucene's default
+     * @param warmer warms every new searcher before it is used, null not to warm
+     */
+    public SimilaritySearcherFactory(Similarity similarity, SearcherWarmer warmer) {
+        this.similarity = similarity;
+        this.warmer = warmer;
+    }
+
+    @Override
+    public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) throws IOException {
+        IndexSearcher searcher = new InstrumentedIndexSearcher(reader);
+        if (similarity != null) {
+            searcher.setSimilarity(similarity);
+        }
+        if (warmer != null) {
+            warmer.warm(searcher, previousReader);
+        }
+        return searcher;
+    }
+}
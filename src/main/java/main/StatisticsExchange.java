@@ -0,0 +1,93 @@
+package main;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Gathers and caches the statistics of a field summed over all shards. A query batch
+ * asks for the terms of all its queries at once, so each shard is contacted once per batch
+ * and only for terms not seen before; single queries are then served from the cache.
+ * The shards are the transport: {@link LocalShard} answers in-process, {@link RemoteShard}
+ * over a socket.
+ */
+public class StatisticsExchange {
+    private final List<Shard> shards;
+    private final ExecutorService executor;
+    private final String field;
+    /**
+     * statistics gathered so far, null until the first exchange
+     */
+    private GlobalStatistics cached;
+
+    /**
+     * @param shards all shards of the collection
+     * @param executor runs the requests to the shards concurrently
+     * @param field the field the statistics are for
+     */
+    public StatisticsExchange(List<Shard> shards, ExecutorService executor, String field) {
+        this.shards = shards;
+        this.executor = executor;
+        this.field = field;
+    }
+
+    /**
+     * Returns the global statistics of the collection including the given terms,
+     * contacting the shards only for terms that are not cached yet
+     * @param terms the terms of one query or of a whole batch
+     * @return the collection statistics with the statistics of the given terms
+     * @throws IOException if a shard fails
+     */
+    public synchronized GlobalStatistics gather(Collection<Term> terms) throws IOException {
+        Map<BytesRef, Term> missing = new LinkedHashMap<>();
+        for (Term term : terms) {
+            if (term.field().equals(field) && (cached == null || !cached.hasTerm(term.bytes()))) {
+                missing.put(term.bytes(), term);
+            }
+        }
+        if (cached != null && missing.isEmpty()) {
+            Metrics.count("stats.cacheHits", 1);
+            return cached.subset(terms);
+        }
+
+        long start = Metrics.start();
+        List<Term> request = new ArrayList<>(missing.values());
+        List<Future<GlobalStatistics>> responses = new ArrayList<>();
+        for (Shard shard : shards) {
+            responses.add(executor.submit(() -> shard.statistics(field, request)));
+        }
+        GlobalStatistics fresh = new GlobalStatistics(field);
+        for (Future<GlobalStatistics> response : responses) {
+            try {
+                fresh.add(response.get());
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IOException("Gathering statistics from the shards failed", e);
+            }
+        }
+        if (cached == null) {
+            cached = fresh;
+        } else {
+            // collection statistics do not change, only the new terms are added
+            cached.addTermStatistics(fresh);
+        }
+        Metrics.record("stats.exchange", start);
+        Metrics.count("stats.requestedTerms", request.size());
+        return cached.subset(terms);
+    }
+
+    /**
+     * Drops the cached statistics, called by {@link ShardedIndex#refresh} when a shard reopened
+     */
+    public synchronized void invalidate() {
+        cached = null;
+    }
+}
@@ -0,0 +1,115 @@
+package main;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Term dictionary lookups of one reader, shared by all searchers on it. A {@link TermQuery}
+ * seeks its term in every segment to get the document frequency for the idf; with the
+ * cache a term is looked up once per reader, however many topics, runs and similarities use it.
+ * A reopened reader gets its own cache, and the cache is dropped when its reader is closed.
+ * Only the {@link #MAX_TERMS} most recently used terms are kept, so replaying a long query log
+ * does not grow the heap with every distinct term, and terms missing from the index are not kept.
+ */
+final class TermStatisticsCache {
+    // the cached term contexts reference their reader, so weak keys would never be cleared
+    private static final Map<IndexReader, TermStatisticsCache> CACHES = new HashMap<>();
+
+    static final int MAX_TERMS = 16384;
+
+    private final IndexReaderContext topContext;
+    /** term contexts by term, the least recently used are dropped beyond {@link #MAX_TERMS} */
+    private final Map<Term, TermContext> termContexts = Collections.synchronizedMap(
+            new LinkedHashMap<Term, TermContext>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Term, TermContext> eldest) {
+                    return size() > MAX_TERMS;
+                }
+            });
+
+    private TermStatisticsCache(IndexReader reader) {
+        this.topContext = reader.getContext();
+    }
+
+    /**
+     * @param reader the top-level reader searched
+     * @return the cache of the reader
+     */
+    static TermStatisticsCache of(IndexReader reader) {
+        synchronized (CACHES) {
+            TermStatisticsCache cache = CACHES.get(reader);
+            if (cache == null) {
+                cache = new TermStatisticsCache(reader);
+                CACHES.put(reader, cache);
+                reader.addReaderClosedListener(closed -> {
+                    synchronized (CACHES) {
+                        CACHES.remove(closed);
+                    }
+                });
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * @param term a term of the reader
+     * @return its per-segment states and statistics, looked up on first use
+     * @throws IOException
+     */
+    TermContext termContext(Term term) throws IOException {
+        TermContext termContext = termContexts.get(term);
+        if (termContext == null) {
+            // built outside the lock; two threads may build the same term, the result is the same
+            termContext = TermContext.build(topContext, term);
+            if (termContext.docFreq() > 0) {
+                termContexts.put(term, termContext);
+            }
+        } else {
+            Metrics.count("query.termStatsCached", 1);
+        }
+        return termContext;
+    }
+
+    /**
+     * Gives the term queries in a tree of boolean and boost queries the cached statistics
+     * @param query a parsed query
+     * @return the query with cached statistics, or the query itself if it has no term queries
+     * @throws IOException
+     */
+    Query withTermContexts(Query query) throws IOException {
+        if (query instanceof TermQuery) {
+            Term term = ((TermQuery) query).getTerm();
+            return new TermQuery(term, termContext(term));
+        } else if (query instanceof BoostQuery) {
+            BoostQuery boostQuery = (BoostQuery) query;
+            Query inner = withTermContexts(boostQuery.getQuery());
+            return inner == boostQuery.getQuery() ? query : new BoostQuery(inner, boostQuery.getBoost());
+        } else if (query instanceof BooleanQuery) {
+            BooleanQuery booleanQuery = (BooleanQuery) query;
+            BooleanQuery.Builder builder = new BooleanQuery.Builder()
+                    .setDisableCoord(booleanQuery.isCoordDisabled())
+                    .setMinimumNumberShouldMatch(booleanQuery.getMinimumNumberShouldMatch());
+            boolean changed = false;
+            for (BooleanClause clause : booleanQuery.clauses()) {
+                Query inner = withTermContexts(clause.getQuery());
+                changed |= inner != clause.getQuery();
+                builder.add(inner, clause.getOccur());
+            }
+            return changed ? builder.build() : query;
+        }
+        return query;
+    }
+}
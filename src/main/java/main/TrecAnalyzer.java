@@ -0,0 +1,76 @@
+package main;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.core.LowerCaseFilter;
+import org.apache.lucene.analysis.core.StopFilter;
+import org.apache.lucene.analysis.en.KStemFilter;
+import org.apache.lucene.analysis.en.PorterStemFilter;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+import org.apache.lucene.analysis.util.CharArraySet;
+import org.apache.lucene.analysis.util.StopwordAnalyzerBase;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Paths;
+
+/**
+ * The analysis chain for TREC documents and queries: optionally strips the SGML tags
+ * before tokenizing (see {@link SgmlTagCharFilter}), then standard tokenization, lower casing, stopword removal and
+ * optionally Porter or Krovetz stemming. Without markup stripping and stemming and with the
+ * English stopwords it produces the same tokens as {@link StandardAnalyzer}.
+ * Like every {@link org.apache.lucene.analysis.Analyzer}, the token stream of a field is
+ * created once per thread and reset for every value.
+ */
+public class TrecAnalyzer extends StopwordAnalyzerBase {
+    private final boolean stripMarkup;
+    private final String stemmer;
+
+    /**
+     * @param stopwords the stopwords removed before stemming, empty to keep all words
+     * @param stripMarkup whether the SGML tags are removed, and their names therefore not indexed
+     * @param stemmer "porter", "kstem" or "none"
+     */
+    public TrecAnalyzer(CharArraySet stopwords, boolean stripMarkup, String stemmer) {
+        super(stopwords);
+        if (!stemmer.equals("porter") && !stemmer.equals("kstem") && !stemmer.equals("none")) {
+            throw new IllegalArgumentException("unknown stemmer: " + stemmer);
+        }
+        this.stripMarkup = stripMarkup;
+        this.stemmer = stemmer;
+    }
+
+    /**
+     * @param stopwords "english" for Lucene's English stopwords, "none", or a file with one stopword per line
+     * @return the stopword set
+     * @throws IOException if the file cannot be read
+     */
+    static CharArraySet stopwords(String stopwords) throws IOException {
+        if (stopwords.equals("english")) {
+            return StandardAnalyzer.STOP_WORDS_SET;
+        } else if (stopwords.equals("none")) {
+            return CharArraySet.EMPTY_SET;
+        }
+        return loadStopwordSet(Paths.get(stopwords));
+    }
+
+    @Override
+    protected Reader initReader(String fieldName, Reader reader) {
+        return stripMarkup ? new SgmlTagCharFilter(reader) : reader;
+    }
+
+    @Override
+    protected TokenStreamComponents createComponents(String fieldName) {
+        StandardTokenizer source = new StandardTokenizer();
+        TokenStream result = new LowerCaseFilter(source);
+        if (!stopwords.isEmpty()) {
+            result = new StopFilter(result, stopwords);
+        }
+        if (stemmer.equals("porter")) {
+            result = new PorterStemFilter(result);
+        } else if (stemmer.equals("kstem")) {
+            result = new KStemFilter(result);
+        }
+        return new TokenStreamComponents(source, result);
+    }
+}
@@ -1,6 +1,7 @@
 package main;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
@@ -11,11 +12,12 @@ import java.util.regex.Pattern;
 
 import org.apache.lucene.document.*;
 import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.util.BytesRef;
 
 /**
  * Taken from https://github.com/isoboroff/trec-demo/blob/master/src/TrecDocIterator.java
  */
-public class TrecDocIterator implements Iterator<Document> {
+public class TrecDocIterator implements Iterator<Document>, Closeable {
 
     protected BufferedReader rdr;
     protected boolean at_eof = false;
@@ -23,7 +25,7 @@ public class TrecDocIterator implements Iterator<Document> {
     public TrecDocIterator(File file) throws FileNotFoundException {
         rdr = new BufferedReader(new FileReader(file));
         if(Main.debugOutput)
-            System.out.println("Reading " + file.toString());
+            System.err.println("Reading " + file.toString());
     }
 
     @Override
@@ -60,6 +62,10 @@ public class TrecDocIterator implements Iterator<Document> {
                 Matcher m = docno_tag.matcher(line);
                 if (m.find()) {
                     String docno = m.group(1);
+                    if (doc.getField("docno") == null) {
+                        // column-stride copy for looking up the docnos of hits
+                        doc.add(new SortedDocValuesField("docno", new BytesRef(docno)));
+                    }
                     doc.add(new StringField("docno", docno, Field.Store.YES));
                 }
 
@@ -87,4 +93,9 @@ public class TrecDocIterator implements Iterator<Document> {
         // Do nothing, but don't complain
     }
 
+    @Override
+    public void close() throws IOException {
+        rdr.close();
+    }
+
 }
\ No newline at end of file
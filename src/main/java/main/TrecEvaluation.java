@@ -0,0 +1,72 @@
+package main;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Minimal trec_eval replacement: reads a qrels file and computes average precision
+ * of a ranked list of docnos, so runs can be compared inside one process.
+ */
+public class TrecEvaluation {
+    private final Map<String, Set<String>> relevant = new HashMap<>();
+
+    /**
+     * @param qrelsPath qrels in the usual "topic iteration docno relevance" format
+     * @throws IOException
+     */
+    public TrecEvaluation(String qrelsPath) throws IOException {
+        BufferedReader br = new BufferedReader(new FileReader(qrelsPath));
+        try {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] parts = line.trim().split("\\s+");
+                if (parts.length < 4 || Integer.parseInt(parts[3]) <= 0) {
+                    continue;
+                }
+                Set<String> docnos = relevant.get(parts[0]);
+                if (docnos == null) {
+                    docnos = new HashSet<>();
+                    relevant.put(parts[0], docnos);
+                }
+                docnos.add(parts[2]);
+            }
+        } finally {
+            br.close();
+        }
+    }
+
+    /**
+     * Loads the qrels configured in config.properties, or returns null if there are none.
+     */
+    static TrecEvaluation fromProperties() throws IOException {
+        String qrels = Main.getProperty("qrels", null);
+        return qrels == null ? null : new TrecEvaluation(qrels);
+    }
+
+    /**
+     * Average precision of a ranking for a topic
+     * @param topic the topic number, surrounding whitespace is ignored
+     * @param docnos the ranked docnos, best first
+     * @return the average precision, 0 if the topic has no relevant documents
+     */
+    public double averagePrecision(String topic, String[] docnos) {
+        Set<String> rel = relevant.get(topic.trim());
+        if (rel == null || rel.isEmpty()) {
+            return 0;
+        }
+        int found = 0;
+        double sum = 0;
+        for (int i = 0; i < docnos.length; i++) {
+            if (rel.contains(docnos[i])) {
+                found++;
+                sum += found / (double) (i + 1);
+            }
+        }
+        return sum / rel.size();
+    }
+}
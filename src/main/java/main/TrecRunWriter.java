@@ -0,0 +1,105 @@
+package main;
+
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Writes a run as standard TREC text, one {@link Main#resultLine} per hit, through one buffered stream.
+ * Lines are assembled as bytes in a reused buffer, with the topic and the run tag encoded once,
+ * so writing a hit allocates nothing.
+ */
+public class TrecRunWriter implements RunWriter {
+    private static final Charset CHARSET = Charset.defaultCharset();
+    private static final byte[] Q0 = " Q0 ".getBytes(CHARSET);
+
+    private final OutputStream out;
+    /** " grp2-" + run tag + line break */
+    private final byte[] suffix;
+    private byte[] topic = new byte[0];
+    private int rank;
+    private byte[] line = new byte[128];
+    private final BytesRefBuilder docnoBytes = new BytesRefBuilder();
+    /** the score's characters exactly as {@link Float#toString} has them; appending a float to a builder creates no String */
+    private final StringBuilder scoreChars = new StringBuilder(16);
+
+    /**
+     * @param file the run file, replaced if it exists
+     * @param runTag the similarity name used in the run tag
+     * @throws IOException
+     */
+    public TrecRunWriter(File file, String runTag) throws IOException {
+        this(new FileOutputStream(file), runTag);
+    }
+
+    TrecRunWriter(OutputStream out, String runTag) {
+        this.out = new BufferedOutputStream(out, 1 << 16);
+        this.suffix = (" grp2-" + runTag + "\n").getBytes(CHARSET);
+    }
+
+    @Override
+    public void startTopic(String topic) {
+        this.topic = topic.getBytes(CHARSET);
+        this.rank = 0;
+    }
+
+    @Override
+    public void add(String docno, float score) throws IOException {
+        docnoBytes.copyChars(docno);
+        add(docnoBytes.get(), score);
+    }
+
+    @Override
+    public void add(BytesRef docno, float score) throws IOException {
+        scoreChars.setLength(0);
+        scoreChars.append(score);
+        line = ArrayUtil.grow(line, topic.length + Q0.length + docno.length + 12 + scoreChars.length() + suffix.length);
+        int upto = append(topic, 0, topic.length, 0);
+        upto = append(Q0, 0, Q0.length, upto);
+        upto = append(docno.bytes, docno.offset, docno.length, upto);
+        line[upto++] = ' ';
+        upto = appendInt(++rank, upto);
+        line[upto++] = ' ';
+        for (int i = 0; i < scoreChars.length(); i++) {
+            line[upto++] = (byte) scoreChars.charAt(i);
+        }
+        upto = append(suffix, 0, suffix.length, upto);
+        out.write(line, 0, upto);
+    }
+
+    private int append(byte[] bytes, int offset, int length, int upto) {
+        System.arraycopy(bytes, offset, line, upto, length);
+        return upto + length;
+    }
+
+    private int appendInt(int value, int upto) {
+        int digits = 1;
+        for (int rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = upto + digits - 1; i >= upto; i--) {
+            line[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return upto + digits;
+    }
+
+    /**
+     * Writes the buffered lines through, e.g. to keep an echo on stdout in order with other output
+     */
+    void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}